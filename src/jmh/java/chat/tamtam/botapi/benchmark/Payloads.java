@@ -0,0 +1,255 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import chat.tamtam.botapi.model.Attachment;
+import chat.tamtam.botapi.model.AttachmentPayload;
+import chat.tamtam.botapi.model.AttachmentRequest;
+import chat.tamtam.botapi.model.AudioAttachment;
+import chat.tamtam.botapi.model.AudioAttachmentRequest;
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.Button;
+import chat.tamtam.botapi.model.Callback;
+import chat.tamtam.botapi.model.CallbackButton;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.ContactAttachment;
+import chat.tamtam.botapi.model.ContactAttachmentPayload;
+import chat.tamtam.botapi.model.FileAttachment;
+import chat.tamtam.botapi.model.FileAttachmentPayload;
+import chat.tamtam.botapi.model.FileAttachmentRequest;
+import chat.tamtam.botapi.model.InlineKeyboardAttachment;
+import chat.tamtam.botapi.model.InlineKeyboardAttachmentRequest;
+import chat.tamtam.botapi.model.InlineKeyboardAttachmentRequestPayload;
+import chat.tamtam.botapi.model.Keyboard;
+import chat.tamtam.botapi.model.LinkButton;
+import chat.tamtam.botapi.model.LocationAttachment;
+import chat.tamtam.botapi.model.LocationAttachmentRequest;
+import chat.tamtam.botapi.model.MediaAttachmentPayload;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageBody;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageList;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.PhotoAttachment;
+import chat.tamtam.botapi.model.PhotoAttachmentPayload;
+import chat.tamtam.botapi.model.PhotoAttachmentRequest;
+import chat.tamtam.botapi.model.PhotoAttachmentRequestPayload;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.RequestContactButton;
+import chat.tamtam.botapi.model.RequestGeoLocationButton;
+import chat.tamtam.botapi.model.ShareAttachment;
+import chat.tamtam.botapi.model.StickerAttachment;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.UploadedFileInfo;
+import chat.tamtam.botapi.model.UploadedInfo;
+import chat.tamtam.botapi.model.User;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.VideoAttachment;
+import chat.tamtam.botapi.model.VideoAttachmentRequest;
+
+/**
+ * Realistic model payloads shared by benchmarks.
+ */
+public final class Payloads {
+    private Payloads() {
+    }
+
+    /**
+     * Plain mapper without {@link chat.tamtam.botapi.client.impl.TamTamModelModule}, configured like default
+     * {@link chat.tamtam.botapi.client.impl.JacksonSerializer}.
+     */
+    public static ObjectMapper plainMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.disable(DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS);
+        return mapper;
+    }
+
+    public static List<Attachment> attachments() {
+        return Arrays.asList(
+                new PhotoAttachment(new PhotoAttachmentPayload(1L, "token", "https://i.tt.me/photo")),
+                new VideoAttachment(new MediaAttachmentPayload(2L, "https://v.tt.me/video")),
+                new AudioAttachment(new MediaAttachmentPayload(3L, "https://a.tt.me/audio")),
+                new FileAttachment(new FileAttachmentPayload(4L, "https://f.tt.me/file")),
+                new StickerAttachment(new AttachmentPayload("https://s.tt.me/sticker")),
+                new ContactAttachment(new ContactAttachmentPayload("BEGIN:VCARD\nEND:VCARD",
+                        new User(5L, "contact", "contact"))),
+                new InlineKeyboardAttachment("callback.6", keyboard()),
+                new ShareAttachment(new AttachmentPayload("https://tt.me/share")),
+                new LocationAttachment(55.75, 37.62));
+    }
+
+    public static Keyboard keyboard() {
+        List<List<Button>> buttons = new ArrayList<>();
+        for (int row = 0; row < 5; row++) {
+            buttons.add(Arrays.asList(
+                    new CallbackButton("payload." + row, "Button " + row),
+                    new LinkButton("https://tt.me/link" + row, "Link " + row)));
+        }
+
+        buttons.add(Arrays.asList(new RequestContactButton("Send contact"),
+                new RequestGeoLocationButton("Send location")));
+        return new Keyboard(buttons);
+    }
+
+    public static Message message(long id, List<Attachment> attachments) {
+        MessageBody body = new MessageBody("mid." + id, id, "Message text number " + id, attachments);
+        return new Message(new User(id, "Sender " + id, "sender" + id), new Recipient(id * 10, ChatType.CHAT, null),
+                System.currentTimeMillis(), body);
+    }
+
+    public static MessageCreatedUpdate messageCreatedUpdate(long id) {
+        return new MessageCreatedUpdate(message(id, attachments()), System.currentTimeMillis());
+    }
+
+    public static UpdateList updateList(int size) {
+        List<Update> updates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            updates.add(messageCreatedUpdate(i));
+        }
+
+        return new UpdateList(updates, (long) size);
+    }
+
+    /**
+     * @return list with every kind of update repeated in turn
+     */
+    public static List<Update> mixedUpdates(int size) {
+        long now = System.currentTimeMillis();
+        List<Update> updates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long id = i;
+            switch (i % 10) {
+                case 0:
+                    updates.add(messageCreatedUpdate(id));
+                    break;
+                case 1:
+                    updates.add(new MessageCallbackUpdate(new Callback(now, "callback." + id, "payload",
+                            new User(id, "User", "user")), message(id, null), now));
+                    break;
+                case 2:
+                    updates.add(new MessageEditedUpdate(message(id, null), now));
+                    break;
+                case 3:
+                    updates.add(new MessageRemovedUpdate("mid." + id, now));
+                    break;
+                case 4:
+                    updates.add(new BotAddedToChatUpdate(id, id, now));
+                    break;
+                case 5:
+                    updates.add(new BotRemovedFromChatUpdate(id, id, now));
+                    break;
+                case 6:
+                    updates.add(new UserAddedToChatUpdate(id, id, id + 1, now));
+                    break;
+                case 7:
+                    updates.add(new UserRemovedFromChatUpdate(id, id, id + 1, now));
+                    break;
+                case 8:
+                    updates.add(new BotStartedUpdate(id, id, now));
+                    break;
+                default:
+                    updates.add(new ChatTitleChangedUpdate(id, id, "Title " + id, now));
+                    break;
+            }
+        }
+
+        return updates;
+    }
+
+    public static MessageList messageList(int size) {
+        List<Message> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(message(i, attachments()));
+        }
+
+        return new MessageList(messages);
+    }
+
+    /**
+     * @return message sent by bot: text, attachments of every kind and inline keyboard
+     */
+    public static NewMessageBody newMessageBody() {
+        List<AttachmentRequest> attachments = Arrays.asList(
+                new PhotoAttachmentRequest(new PhotoAttachmentRequestPayload().token("photo.token")),
+                new VideoAttachmentRequest(new UploadedInfo(2L)),
+                new AudioAttachmentRequest(new UploadedInfo(3L)),
+                new FileAttachmentRequest(new UploadedFileInfo(4L)),
+                new LocationAttachmentRequest(55.75, 37.62),
+                new InlineKeyboardAttachmentRequest(new InlineKeyboardAttachmentRequestPayload(keyboard().getButtons())));
+        return new NewMessageBody("Message text sent by bot", attachments, null);
+    }
+
+    public static UpdateList singleUpdate() {
+        return new UpdateList(Collections.singletonList(messageCreatedUpdate(1)), 1L);
+    }
+
+    /**
+     * Moves {@code type} and {@code update_type} properties to the beginning of every object in tree.
+     */
+    public static JsonNode moveTypeFirst(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            for (String typeField : Arrays.asList("type", "update_type")) {
+                JsonNode type = object.get(typeField);
+                if (type == null || !type.isTextual()) {
+                    continue;
+                }
+
+                ObjectNode copy = object.deepCopy();
+                object.removeAll();
+                object.set(typeField, type);
+                Iterator<Map.Entry<String, JsonNode>> fields = copy.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    if (!field.getKey().equals(typeField)) {
+                        object.set(field.getKey(), field.getValue());
+                    }
+                }
+            }
+        }
+
+        for (JsonNode child : node) {
+            moveTypeFirst(child);
+        }
+
+        return node;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.metrics.ClientMetrics;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.SendMessageResult;
+import chat.tamtam.botapi.queries.SendMessageQuery;
+
+/**
+ * Compares sending message with new {@link SendMessageQuery} on every call with rebinding one query per thread.
+ * Transport answers immediately, so only client overhead is measured. Run with {@code -prof gc} to see allocation
+ * per send with and without {@link ClientMetrics}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryReuseBenchmark {
+    @Param({"false", "true"})
+    private boolean metrics;
+
+    private TamTamBotAPI api;
+    private SendMessageQuery query;
+    private NewMessageBody body;
+    private long chatId;
+
+    @Setup
+    public void setUp() throws Exception {
+        TamTamClient client = new TamTamClient("token", new ImmediateTransport(), new JacksonSerializer());
+        client.setCallbackExecutor(Runnable::run);
+        client.setMetrics(metrics ? new ClientMetrics() : null);
+        api = new TamTamBotAPI(client);
+        body = new NewMessageBody("hello world!", null, null);
+        query = api.sendMessage(body);
+    }
+
+    @Benchmark
+    public SendMessageResult newQuery() throws Exception {
+        return api.sendMessage(body).chatId(++chatId).execute();
+    }
+
+    @Benchmark
+    public SendMessageResult reusedQuery() throws Exception {
+        return query.body(body).chatId(++chatId).execute();
+    }
+
+    private static class ImmediateTransport implements TamTamTransportClient {
+        private static final Future<ClientResponse> RESPONSE = CompletableFuture.completedFuture(
+                new ClientResponse(200, "{}".getBytes(), Collections.emptyMap()));
+
+        @Override
+        public Future<ClientResponse> get(String url) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> post(String url, @Nullable byte[] body) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> post(String url, String filename, InputStream inputStream) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> post(String url, String filename, File file) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> put(String url, @Nullable byte[] requestBody) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> delete(String url) {
+            return RESPONSE;
+        }
+
+        @Override
+        public Future<ClientResponse> patch(String url, @Nullable byte[] requestBody) {
+            return RESPONSE;
+        }
+    }
+}
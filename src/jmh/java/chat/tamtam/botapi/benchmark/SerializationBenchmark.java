@@ -0,0 +1,103 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.MessageList;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.UpdateList;
+
+/**
+ * Measures {@link JacksonSerializer} on payloads bot usually receives ({@code UpdateList}, {@code MessageList}) and
+ * sends ({@code NewMessageBody}). All messages have attachments of every kind and inline keyboard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"1", "100"})
+    private int size;
+
+    private JacksonSerializer serializer;
+    private UpdateList updateList;
+    private MessageList messageList;
+    private NewMessageBody newMessageBody;
+    private byte[] updateListBytes;
+    private byte[] messageListBytes;
+    private byte[] newMessageBodyBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        serializer = new JacksonSerializer();
+        updateList = new UpdateList(Payloads.mixedUpdates(size), (long) size);
+        messageList = Payloads.messageList(size);
+        newMessageBody = Payloads.newMessageBody();
+        updateListBytes = serializer.serialize(updateList);
+        messageListBytes = serializer.serialize(messageList);
+        newMessageBodyBytes = serializer.serialize(newMessageBody);
+    }
+
+    @Benchmark
+    public byte[] serializeUpdateList() throws Exception {
+        return serializer.serialize(updateList);
+    }
+
+    @Benchmark
+    public UpdateList deserializeUpdateList() throws Exception {
+        return serializer.deserialize(updateListBytes, UpdateList.class);
+    }
+
+    @Benchmark
+    public byte[] serializeMessageList() throws Exception {
+        return serializer.serialize(messageList);
+    }
+
+    @Benchmark
+    public MessageList deserializeMessageList() throws Exception {
+        return serializer.deserialize(messageListBytes, MessageList.class);
+    }
+
+    @Benchmark
+    public byte[] serializeNewMessageBody() throws Exception {
+        return serializer.serialize(newMessageBody);
+    }
+
+    @Benchmark
+    public NewMessageBody deserializeNewMessageBody() throws Exception {
+        return serializer.deserialize(newMessageBodyBytes, NewMessageBody.class);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.UpdateList;
+
+/**
+ * Compares default Jackson handling of {@code @JsonTypeInfo(include = EXISTING_PROPERTY)} with
+ * {@link chat.tamtam.botapi.client.impl.TamTamModelModule} on {@code MessageCreatedUpdate} with all kinds of
+ * attachments and inline keyboard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubtypeDeserializationBenchmark {
+    @Param({"1", "100"})
+    private int updates;
+
+    @Param({"true", "false"})
+    private boolean typeFirst;
+
+    private JacksonSerializer annotations;
+    private JacksonSerializer module;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper mapper = Payloads.plainMapper();
+        annotations = new JacksonSerializer(mapper);
+        module = new JacksonSerializer();
+
+        UpdateList updateList = Payloads.updateList(updates);
+        payload = typeFirst
+                ? mapper.writeValueAsBytes(Payloads.moveTypeFirst(mapper.valueToTree(updateList)))
+                : mapper.writeValueAsBytes(updateList);
+    }
+
+    @Benchmark
+    public UpdateList annotations() throws Exception {
+        return annotations.deserialize(payload, UpdateList.class);
+    }
+
+    @Benchmark
+    public UpdateList module() throws Exception {
+        return module.deserialize(payload, UpdateList.class);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+
+/**
+ * Measures {@link Update.Visitor} dispatch over batch of updates. Batch is either of one type (monomorphic call
+ * site) or contains every type of update in turn (megamorphic call site).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateDispatchBenchmark {
+    @Param({"false", "true"})
+    private boolean mixed;
+
+    private List<Update> updates;
+
+    @Setup
+    public void setUp() {
+        updates = mixed ? Payloads.mixedUpdates(100) : Payloads.updateList(100).getUpdates();
+    }
+
+    @Benchmark
+    public void visit(Blackhole blackhole) {
+        UpdateVisitor visitor = new UpdateVisitor(blackhole);
+        for (Update update : updates) {
+            update.visit(visitor);
+        }
+    }
+
+    private static class UpdateVisitor implements Update.Visitor {
+        private final Blackhole blackhole;
+
+        UpdateVisitor(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+            blackhole.consume(model.getMessage());
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+            blackhole.consume(model.getCallback());
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+            blackhole.consume(model.getMessage());
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+            blackhole.consume(model.getMessageId());
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            blackhole.consume(model.getChatId());
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            blackhole.consume(model.getChatId());
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+            blackhole.consume(model.getUserId());
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+            blackhole.consume(model.getUserId());
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+            blackhole.consume(model.getUserId());
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            blackhole.consume(model.getTitle());
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+            blackhole.consume(model);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.impl.OkHttpTransportClient;
+
+/**
+ * Uploads generated stream of different sizes to local server. Run with {@code -prof gc}: if upload is streamed,
+ * allocation per upload ({@code gc.alloc.rate.norm}) does not grow with size of stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+    @Param({"1048576", "67108864"})
+    private long size;
+
+    private HttpServer server;
+    private String url;
+    private OkHttpTransportClient transport;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/upload", UploadBenchmark::drain);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/upload";
+        transport = new OkHttpTransportClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public ClientResponse upload() throws Exception {
+        return transport.post(url, "video.mp4", new GeneratedInputStream(size)).get();
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read(buffer) != -1) {
+                // skip
+            }
+        }
+
+        exchange.sendResponseHeaders(200, 2);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write('{');
+            out.write('}');
+        }
+    }
+
+    private static class GeneratedInputStream extends InputStream {
+        private long bytesLeft;
+
+        private GeneratedInputStream(long size) {
+            this.bytesLeft = size;
+        }
+
+        @Override
+        public int read() {
+            if (bytesLeft == 0) {
+                return -1;
+            }
+
+            bytesLeft--;
+            return 'a';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (bytesLeft == 0) {
+                return -1;
+            }
+
+            // content does not matter, so buffer is sent as is
+            int n = (int) Math.min(len, bytesLeft);
+            bytesLeft -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import chat.tamtam.botapi.benchmark.Payloads;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatList;
+import chat.tamtam.botapi.model.ChatStatus;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.Error;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageBody;
+import chat.tamtam.botapi.model.MessageList;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.SendMessageResult;
+import chat.tamtam.botapi.model.SimpleQueryResult;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.User;
+
+/**
+ * Local server answering Bot API requests with canned responses, so client stack can be loaded without touching real
+ * service.
+ * <p>
+ * Every response is delayed by {@link #latency(Latency)}, may be replaced by {@code 429 too.many.requests} or
+ * {@code 503} with given probabilities and may be written in chunks with pauses between them to emulate slow body.
+ * Delays are scheduled on timer, so request threads never sleep. Server threads are named with
+ * {@link #THREAD_PREFIX}, so their allocations can be told from client ones.
+ */
+public class FakeTamTamServer implements AutoCloseable {
+    public static final String THREAD_PREFIX = "fake-tamtam-";
+
+    static {
+        // headers and body are written separately, without TCP_NODELAY every response waits for delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final int OK = 200;
+    private static final int NOT_FOUND = 404;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder tooManyRequests = new LongAdder();
+    private final LongAdder serviceUnavailable = new LongAdder();
+
+    private InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Latency latency = Latency.none();
+    private double tooManyRequestsRate;
+    private double serviceUnavailableRate;
+    private int updates = 10;
+    private int messages = 10;
+    private int textLength = 100;
+    private int bodyChunks = 1;
+    private long chunkDelayNanos;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService timer;
+    private byte[] me;
+    private byte[] sendMessageResult;
+    private byte[] simpleQueryResult;
+    private byte[] updateList;
+    private byte[] messageList;
+    private byte[] chat;
+    private byte[] chatList;
+    private byte[] tooManyRequestsError;
+    private byte[] notFoundError;
+
+    /**
+     * @param address address to listen on, loopback with free port by default
+     */
+    public FakeTamTamServer address(InetSocketAddress address) {
+        checkNotStarted();
+        this.address = Objects.requireNonNull(address, "address");
+        return this;
+    }
+
+    /**
+     * @param threads number of threads receiving requests
+     */
+    public FakeTamTamServer threads(int threads) {
+        checkNotStarted();
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param latency delay before response headers are sent
+     */
+    public FakeTamTamServer latency(Latency latency) {
+        this.latency = Objects.requireNonNull(latency, "latency");
+        return this;
+    }
+
+    /**
+     * @param tooManyRequests share of requests answered with {@code 429 too.many.requests}
+     * @param serviceUnavailable share of requests answered with {@code 503}
+     */
+    public FakeTamTamServer errors(double tooManyRequests, double serviceUnavailable) {
+        if (tooManyRequests < 0 || serviceUnavailable < 0 || tooManyRequests + serviceUnavailable > 1) {
+            throw new IllegalArgumentException("error rates must be non-negative and not exceed 1 in total");
+        }
+
+        this.tooManyRequestsRate = tooManyRequests;
+        this.serviceUnavailableRate = serviceUnavailable;
+        return this;
+    }
+
+    /**
+     * @param updates number of updates returned by {@code GET /updates}
+     * @param messages number of messages returned by {@code GET /messages} and chats by {@code GET /chats}
+     * @param textLength length of text of every message
+     */
+    public FakeTamTamServer payload(int updates, int messages, int textLength) {
+        checkNotStarted();
+        if (updates < 0 || messages < 0 || textLength < 0) {
+            throw new IllegalArgumentException("payload sizes must be non-negative");
+        }
+
+        this.updates = updates;
+        this.messages = messages;
+        this.textLength = textLength;
+        return this;
+    }
+
+    /**
+     * Writes response body in {@code chunks} parts with {@code delay} between them.
+     */
+    public FakeTamTamServer slowBody(int chunks, long delay, TimeUnit unit) {
+        if (chunks < 1 || delay < 0) {
+            throw new IllegalArgumentException("chunks must be positive and delay must be non-negative");
+        }
+
+        this.bodyChunks = chunks;
+        this.chunkDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    public synchronized void start() throws IOException {
+        checkNotStarted();
+        try {
+            prepareResponses();
+        } catch (SerializationException e) {
+            throw new IOException("Failed to prepare responses", e);
+        }
+
+        server = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(threads, new ServerThreadFactory("http-"));
+        timer = Executors.newSingleThreadScheduledExecutor(new ServerThreadFactory("timer-"));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * @return endpoint to be returned by {@link chat.tamtam.botapi.client.TamTamClient#getEndpoint()}
+     */
+    public String getEndpoint() {
+        if (server == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+
+        InetSocketAddress bound = server.getAddress();
+        return "http://" + bound.getHostString() + ":" + bound.getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getTooManyRequestsCount() {
+        return tooManyRequests.sum();
+    }
+
+    public long getServiceUnavailableCount() {
+        return serviceUnavailable.sum();
+    }
+
+    private void prepareResponses() throws SerializationException {
+        char[] text = new char[textLength];
+        Arrays.fill(text, 'x');
+        MessageBody messageBody = new MessageBody("mid.1", 1L, new String(text), Payloads.attachments());
+        Message message = new Message(new User(2L, "Sender", "sender"), new Recipient(1L, ChatType.CHAT, null),
+                System.currentTimeMillis(), messageBody);
+
+        List<Update> updateItems = Payloads.mixedUpdates(updates);
+        List<Message> messageItems = new ArrayList<>(messages);
+        List<Chat> chatItems = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            messageItems.add(message);
+            chatItems.add(chat(i));
+        }
+
+        me = serializer.serialize(new User(1L, "Load test bot", "loadtestbot"));
+        sendMessageResult = serializer.serialize(new SendMessageResult(message));
+        simpleQueryResult = serializer.serialize(new SimpleQueryResult(true));
+        updateList = serializer.serialize(new UpdateList(updateItems, (long) updates));
+        messageList = serializer.serialize(new MessageList(messageItems));
+        chat = serializer.serialize(chat(1));
+        chatList = serializer.serialize(new ChatList(chatItems, null));
+        tooManyRequestsError = serializer.serialize(new Error("too.many.requests", "Too many requests"));
+        notFoundError = serializer.serialize(new Error("not.found", "Method not found"));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        drain(exchange.getRequestBody());
+
+        int status = OK;
+        byte[] body;
+        double random = ThreadLocalRandom.current().nextDouble();
+        if (random < tooManyRequestsRate) {
+            tooManyRequests.increment();
+            status = TOO_MANY_REQUESTS;
+            body = tooManyRequestsError;
+        } else if (random < tooManyRequestsRate + serviceUnavailableRate) {
+            serviceUnavailable.increment();
+            status = SERVICE_UNAVAILABLE;
+            body = new byte[0];
+        } else {
+            body = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+            if (body == null) {
+                status = NOT_FOUND;
+                body = notFoundError;
+            }
+        }
+
+        Response response = new Response(exchange, status, body);
+        long delay = latency.nextNanos(ThreadLocalRandom.current());
+        if (delay > 0) {
+            timer.schedule(response::sendHeaders, delay, TimeUnit.NANOSECONDS);
+        } else {
+            response.sendHeaders();
+        }
+    }
+
+    private byte[] route(String method, String path) {
+        switch (method + " " + path) {
+            case "GET /me":
+                return me;
+            case "POST /messages":
+                return sendMessageResult;
+            case "GET /messages":
+                return messageList;
+            case "GET /updates":
+                return updateList;
+            case "GET /chats":
+                return chatList;
+        }
+
+        if (path.startsWith("/chats/") && "GET".equals(method) && path.indexOf('/', "/chats/".length()) < 0) {
+            return chat;
+        }
+
+        return "GET".equals(method) ? null : simpleQueryResult;
+    }
+
+    private static Chat chat(long id) {
+        return new Chat(id, ChatType.CHAT, ChatStatus.ACTIVE, "Chat " + id, null, System.currentTimeMillis(), 10,
+                false, null);
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (body.read(buffer) >= 0) {
+            // request body is not needed
+        }
+
+        body.close();
+    }
+
+    private void checkNotStarted() {
+        if (server != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+    }
+
+    /**
+     * Distribution of response delay.
+     */
+    @FunctionalInterface
+    public interface Latency {
+        long nextNanos(ThreadLocalRandom random);
+
+        static Latency none() {
+            return random -> 0;
+        }
+
+        static Latency fixed(long delay, TimeUnit unit) {
+            long nanos = unit.toNanos(delay);
+            return random -> nanos;
+        }
+
+        static Latency uniform(long min, long max, TimeUnit unit) {
+            long minNanos = unit.toNanos(min);
+            long maxNanos = unit.toNanos(max);
+            return random -> minNanos == maxNanos ? minNanos : random.nextLong(minNanos, maxNanos);
+        }
+
+        /**
+         * Exponential distribution: most responses are fast, some of them are much slower than mean.
+         */
+        static Latency exponential(long mean, TimeUnit unit) {
+            double meanNanos = unit.toNanos(mean);
+            return random -> (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+        }
+    }
+
+    private class Response {
+        private final HttpExchange exchange;
+        private final int status;
+        private final byte[] body;
+        private int chunk;
+
+        Response(HttpExchange exchange, int status, byte[] body) {
+            this.exchange = exchange;
+            this.status = status;
+            this.body = body;
+        }
+
+        void sendHeaders() {
+            try {
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+                if (body.length == 0) {
+                    exchange.close();
+                    return;
+                }
+
+                writeChunk();
+            } catch (IOException e) {
+                exchange.close();
+            }
+        }
+
+        void writeChunk() {
+            int chunks = Math.min(bodyChunks, body.length);
+            int from = (int) ((long) body.length * chunk / chunks);
+            int to = (int) ((long) body.length * (chunk + 1) / chunks);
+            try {
+                OutputStream out = exchange.getResponseBody();
+                out.write(body, from, to - from);
+                out.flush();
+            } catch (IOException e) {
+                exchange.close();
+                return;
+            }
+
+            if (++chunk == chunks) {
+                exchange.close();
+            } else if (chunkDelayNanos > 0) {
+                timer.schedule(this::writeChunk, chunkDelayNanos, TimeUnit.NANOSECONDS);
+            } else {
+                writeChunk();
+            }
+        }
+    }
+
+    private static class ServerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        ServerThreadFactory(String prefix) {
+            this.prefix = THREAD_PREFIX + prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
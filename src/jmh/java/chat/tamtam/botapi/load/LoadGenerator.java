@@ -0,0 +1,195 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.metrics.Histogram;
+import chat.tamtam.botapi.queries.TamTamQuery;
+
+/**
+ * Sends requests created by {@link Request} through {@link TamTamBotAPI} keeping given number of them in flight.
+ * Requests sent during warmup are not measured.
+ * <p>
+ * Allocation is measured per thread, so bytes allocated by threads finished during test are not counted. Threads of
+ * {@link FakeTamTamServer} running in the same JVM are excluded.
+ */
+public class LoadGenerator {
+    private final TamTamBotAPI api;
+    private final Request request;
+    private int concurrency = 16;
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+    private long durationNanos = TimeUnit.SECONDS.toNanos(30);
+
+    public LoadGenerator(TamTamBotAPI api, Request request) {
+        this.api = Objects.requireNonNull(api, "api");
+        this.request = Objects.requireNonNull(request, "request");
+    }
+
+    /**
+     * @param concurrency number of requests in flight
+     */
+    public LoadGenerator concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public LoadGenerator warmup(long warmup, TimeUnit unit) {
+        if (warmup < 0) {
+            throw new IllegalArgumentException("warmup must be non-negative");
+        }
+
+        this.warmupNanos = unit.toNanos(warmup);
+        return this;
+    }
+
+    public LoadGenerator duration(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        drive(inFlight, System.nanoTime() + warmupNanos, null);
+
+        Measurement measurement = new Measurement();
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        drive(inFlight, start + durationNanos, measurement);
+        inFlight.acquire(concurrency);
+        long duration = System.nanoTime() - start;
+        long allocated = allocatedSince(allocatedBefore);
+        inFlight.release(concurrency);
+
+        Map<String, Long> errors = new HashMap<>();
+        measurement.errors.forEach((type, count) -> errors.put(type, count.sum()));
+        return new LoadReport(measurement.latency.getCount(), errors, duration, measurement.latency, allocated);
+    }
+
+    private void drive(Semaphore inFlight, long deadline, Measurement measurement) throws InterruptedException {
+        while (System.nanoTime() < deadline) {
+            if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            CompletableFuture<?> future;
+            try {
+                future = request.create(api).enqueueAsync();
+            } catch (ClientException | RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+
+            future.whenComplete((result, e) -> {
+                if (measurement != null) {
+                    measurement.record(System.nanoTime() - start, e);
+                }
+
+                inFlight.release();
+            });
+        }
+    }
+
+    private static Map<Long, Long> allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+
+        Map<Long, Long> allocated = new HashMap<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null || info.getThreadName().startsWith(FakeTamTamServer.THREAD_PREFIX)) {
+                continue;
+            }
+
+            long bytes = threads.getThreadAllocatedBytes(info.getThreadId());
+            if (bytes >= 0) {
+                allocated.put(info.getThreadId(), bytes);
+            }
+        }
+
+        return allocated;
+    }
+
+    private static long allocatedSince(Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytes();
+        if (before == null || after == null) {
+            return -1;
+        }
+
+        long allocated = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            allocated += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+
+        return allocated;
+    }
+
+    /**
+     * Creates query for every request. Called on single thread.
+     */
+    @FunctionalInterface
+    public interface Request {
+        TamTamQuery<?> create(TamTamBotAPI api) throws ClientException;
+    }
+
+    private static class Measurement {
+        private final Histogram latency = new Histogram();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        void record(long nanos, Throwable error) {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (error == null) {
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            errors.computeIfAbsent(cause.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        }
+    }
+}
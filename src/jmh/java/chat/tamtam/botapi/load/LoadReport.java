@@ -0,0 +1,116 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.load;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import chat.tamtam.botapi.metrics.Histogram;
+
+/**
+ * Results of {@link LoadGenerator#run()}. Latencies are in microseconds.
+ */
+public class LoadReport {
+    private final long requests;
+    private final Map<String, Long> errors;
+    private final long durationNanos;
+    private final Histogram latency;
+    private final long allocatedBytes;
+
+    LoadReport(long requests, Map<String, Long> errors, long durationNanos, Histogram latency,
+               long allocatedBytes) {
+        this.requests = requests;
+        this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+        this.durationNanos = durationNanos;
+        this.latency = latency;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * @return number of completed requests, both successful and failed
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of failed requests by simple name of exception
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return completed requests per second
+     */
+    public double getThroughput() {
+        return durationNanos == 0 ? 0 : requests * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    public long getLatencyPercentile(double percentile) {
+        return latency.getPercentile(percentile);
+    }
+
+    public long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    /**
+     * @return bytes allocated by all threads except ones of {@link FakeTamTamServer}, -1 if JVM can't measure it
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return allocated megabytes per second, -1 if JVM can't measure it
+     */
+    public double getAllocationRate() {
+        if (allocatedBytes < 0 || durationNanos == 0) {
+            return -1;
+        }
+
+        return allocatedBytes / 1024.0 / 1024.0 * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    /**
+     * @return bytes allocated per completed request, -1 if JVM can't measure it
+     */
+    public long getAllocatedBytesPerRequest() {
+        return allocatedBytes < 0 || requests == 0 ? -1 : allocatedBytes / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests: %d in %.1f s, %.1f req/s%n", requests, durationNanos / 1e9, getThroughput())
+                + String.format("latency, us: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+                getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99),
+                getLatencyPercentile(99.9), getMaxLatency())
+                + String.format("allocation: %.1f MB/s, %d B/request%n", getAllocationRate(),
+                getAllocatedBytesPerRequest())
+                + "errors: " + errors;
+    }
+}
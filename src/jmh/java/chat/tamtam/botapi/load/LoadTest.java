@@ -0,0 +1,174 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.load;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.RetryPolicy;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.client.impl.OkHttpTransportClient;
+import chat.tamtam.botapi.metrics.ClientMetrics;
+import chat.tamtam.botapi.model.CallbackAnswer;
+import chat.tamtam.botapi.model.NewMessageBody;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Starts {@link FakeTamTamServer} and loads it by {@link LoadGenerator} through {@link OkHttpTransportClient}.
+ * Options are passed as {@code name=value} arguments:
+ * <pre>
+ * query=send               send|edit|callback|me|chat|chats|messages|updates
+ * concurrency=64           requests in flight
+ * warmup=5 duration=30     seconds
+ * latency=exp:20           none|fixed:MS|uniform:MIN_MS:MAX_MS|exp:MEAN_MS
+ * tooManyRequests=0        share of 429 responses
+ * serviceUnavailable=0     share of 503 responses
+ * updates=10 messages=10   number of items in list responses
+ * text=100                 length of message text in responses
+ * chunks=1 chunkDelay=0    response body parts and delay between them in milliseconds
+ * retries=0                retries of RetryPolicy set to client, no policy if 0
+ * serverThreads=4          threads of fake server
+ * metrics=false            set ClientMetrics to client and print them
+ * </pre>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec@load -Dload.args="..."}.
+ */
+public class LoadTest {
+    private static final NewMessageBody BODY = new NewMessageBody("Load test message", null, null);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value argument: " + arg);
+            }
+
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        int chunks = Integer.parseInt(options.getOrDefault("chunks", "1"));
+        FakeTamTamServer server = new FakeTamTamServer()
+                .threads(Integer.parseInt(options.getOrDefault("serverThreads", "4")))
+                .latency(latency(options.getOrDefault("latency", "exp:20")))
+                .errors(Double.parseDouble(options.getOrDefault("tooManyRequests", "0")),
+                        Double.parseDouble(options.getOrDefault("serviceUnavailable", "0")))
+                .payload(Integer.parseInt(options.getOrDefault("updates", "10")),
+                        Integer.parseInt(options.getOrDefault("messages", "10")),
+                        Integer.parseInt(options.getOrDefault("text", "100")))
+                .slowBody(chunks, Long.parseLong(options.getOrDefault("chunkDelay", "0")), TimeUnit.MILLISECONDS);
+
+        server.start();
+        try {
+            TamTamClient client = client(server.getEndpoint(), concurrency);
+            ClientMetrics metrics = Boolean.parseBoolean(options.getOrDefault("metrics", "false"))
+                    ? new ClientMetrics()
+                    : null;
+            client.setMetrics(metrics);
+            int retries = Integer.parseInt(options.getOrDefault("retries", "0"));
+            if (retries > 0) {
+                client.setRetryPolicy(new RetryPolicy(retries, 10, 1000, TimeUnit.MILLISECONDS));
+            }
+
+            LoadReport report = new LoadGenerator(new TamTamBotAPI(client), request(options.getOrDefault("query", "send")))
+                    .concurrency(concurrency)
+                    .warmup(Long.parseLong(options.getOrDefault("warmup", "5")), TimeUnit.SECONDS)
+                    .duration(Long.parseLong(options.getOrDefault("duration", "30")), TimeUnit.SECONDS)
+                    .run();
+
+            System.out.println(report);
+            System.out.printf("server: %d requests, %d answered with 429, %d with 503%n", server.getRequestCount(),
+                    server.getTooManyRequestsCount(), server.getServiceUnavailableCount());
+            if (metrics != null) {
+                metrics.forEach((endpoint, m) -> System.out.printf(
+                        "%s: %d requests, p99 %d us, %d bytes sent, %d bytes received, errors %s%n", endpoint,
+                        m.getRequestCount(), m.getLatency().getPercentile(99), m.getRequestBytes(),
+                        m.getResponseBytes(), m.getErrorCounts()));
+            }
+        } finally {
+            server.stop();
+        }
+
+        // OkHttp keeps non-daemon threads for a while
+        System.exit(0);
+    }
+
+    private static TamTamClient client(String endpoint, int concurrency) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(concurrency);
+        dispatcher.setMaxRequestsPerHost(concurrency);
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(concurrency, 5, TimeUnit.MINUTES))
+                .build();
+
+        return new TamTamClient("token", new OkHttpTransportClient(httpClient), new JacksonSerializer()) {
+            @Override
+            public String getEndpoint() {
+                return endpoint;
+            }
+        };
+    }
+
+    private static LoadGenerator.Request request(String query) {
+        switch (query) {
+            case "send":
+                return api -> api.sendMessage(BODY).chatId(1L);
+            case "edit":
+                return api -> api.editMessage(BODY, "mid.1");
+            case "callback":
+                return api -> api.answerOnCallback(new CallbackAnswer().notification("Done"), "callback.1");
+            case "me":
+                return TamTamBotAPI::getMyInfo;
+            case "chat":
+                return api -> api.getChat(1L);
+            case "chats":
+                return TamTamBotAPI::getChats;
+            case "messages":
+                return api -> api.getMessages().chatId(1L);
+            case "updates":
+                return TamTamBotAPI::getUpdates;
+            default:
+                throw new IllegalArgumentException("Unknown query: " + query);
+        }
+    }
+
+    private static FakeTamTamServer.Latency latency(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "none":
+                return FakeTamTamServer.Latency.none();
+            case "fixed":
+                return FakeTamTamServer.Latency.fixed(Long.parseLong(parts[1]), TimeUnit.MILLISECONDS);
+            case "uniform":
+                return FakeTamTamServer.Latency.uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                        TimeUnit.MILLISECONDS);
+            case "exp":
+                return FakeTamTamServer.Latency.exponential(Long.parseLong(parts[1]), TimeUnit.MILLISECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown latency: " + spec);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.queries;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.client.impl.OkHttpTransportClient;
+
+/**
+ * Measures {@link TamTamQuery#buildURL()} and {@link CollectionQueryParam#format()} on {@link GetMessagesQuery}
+ * with given number of message ids. Lives in {@code queries} package because {@code buildURL} is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryURLBenchmark {
+    @Param({"1", "100"})
+    private int messageIds;
+
+    private GetMessagesQuery query;
+    private CollectionQueryParam<String> param;
+
+    @Setup
+    public void setUp() {
+        TamTamClient client = new TamTamClient("token", new OkHttpTransportClient(), new JacksonSerializer());
+        Set<String> ids = new LinkedHashSet<>();
+        for (int i = 0; i < messageIds; i++) {
+            ids.add("mid.0000000000" + i);
+        }
+
+        query = new GetMessagesQuery(client).chatId(-1234567890L).messageIds(ids).count(100);
+        param = new CollectionQueryParam<>("message_ids", new GetMessagesQuery(client));
+        param.setValue(ids);
+    }
+
+    @Benchmark
+    public String buildURL() throws Exception {
+        return query.buildURL();
+    }
+
+    @Benchmark
+    public String formatCollection() {
+        return param.format();
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.broadcast;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chat.tamtam.botapi.client.RateLimiter;
+import chat.tamtam.botapi.client.RetryPolicy;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.SendMessageResult;
+import chat.tamtam.botapi.queries.SendMessageQuery;
+import chat.tamtam.botapi.queries.SendSerializedMessageQuery;
+
+/**
+ * Sends the same message to many chats and users.
+ * <p>
+ * Message body is serialized once for all recipients. Recipients are pulled lazily, so they can be streamed from
+ * database, and at most {@link #concurrency(int)} messages are in flight at any time. Sends pass through
+ * {@link RateLimiter} and {@link RetryPolicy} set to broadcast or, if not set, to client.
+ */
+public class Broadcast {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final TamTamClient client;
+    private volatile int concurrency = 16;
+    private volatile RateLimiter rateLimiter;
+    private volatile RetryPolicy retryPolicy;
+
+    public Broadcast(TamTamClient client) {
+        this.client = Objects.requireNonNull(client, "client");
+    }
+
+    /**
+     * @param concurrency maximum number of messages sent at the same time
+     */
+    public Broadcast concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Sets rate limiter shared by all sends of broadcast instead of client's one.
+     */
+    public Broadcast rateLimiter(@Nullable RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Sets retry policy of sends instead of client's one.
+     */
+    public Broadcast retryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Starts sending message to every recipient of stream. Stream is closed when job finishes, so it can hold
+     * resources like database cursor.
+     *
+     * @see #send(byte[], Iterator, Consumer)
+     */
+    public Job send(NewMessageBody body, Stream<Target> recipients, Consumer<Result> listener)
+            throws SerializationException {
+        byte[] serialized;
+        try {
+            serialized = client.getSerializer().serialize(body);
+        } catch (SerializationException | RuntimeException e) {
+            recipients.close();
+            throw e;
+        }
+
+        return start(target -> serialized, recipients.iterator(), recipients, listener);
+    }
+
+    /**
+     * Starts sending message to every recipient.
+     *
+     * @param body       serialized {@link NewMessageBody}
+     * @param recipients recipients of message. Iterator is called by one thread at a time.
+     * @param listener   receives result for every recipient. It may be called concurrently from callback threads.
+     * @return running broadcast
+     */
+    public Job send(byte[] body, Iterator<Target> recipients, Consumer<Result> listener) {
+        Objects.requireNonNull(body, "body");
+        return start(target -> body, recipients, null, listener);
+    }
+
+    /**
+     * Starts sending message with variables bound for every recipient.
+     *
+     * @param variables returns values of message variables for recipient
+     * @see #send(byte[], Iterator, Consumer)
+     */
+    public Job send(PreparedMessage message, Iterator<Target> recipients,
+                    Function<Target, Map<String, String>> variables, Consumer<Result> listener) {
+        Objects.requireNonNull(message, "message");
+        Objects.requireNonNull(variables, "variables");
+        return start(target -> message.bind(variables.apply(target)), recipients, null, listener);
+    }
+
+    private Job start(Function<Target, byte[]> bodies, Iterator<Target> recipients, @Nullable AutoCloseable source,
+                      Consumer<Result> listener) {
+        Job job = new Job(bodies, recipients, source, listener, concurrency, rateLimiter, retryPolicy);
+        job.drain();
+        return job;
+    }
+
+    /**
+     * Running broadcast.
+     */
+    public class Job {
+        private final Function<Target, byte[]> bodies;
+        private final Iterator<Target> recipients;
+        // closed once recipients are no longer pulled
+        private final AutoCloseable source;
+        private final Consumer<Result> listener;
+        private final int concurrency;
+        private final RateLimiter rateLimiter;
+        private final RetryPolicy retryPolicy;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private final Set<CompletableFuture<SendMessageResult>> inFlightSends = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // number of drain requests, only thread incrementing it from zero pulls recipients
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder latencyTotal = new LongAdder();
+        private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+        private volatile boolean cancelled;
+        private boolean exhausted;
+        private boolean finished;
+        private RuntimeException recipientsFailure;
+
+        private Job(Function<Target, byte[]> bodies, Iterator<Target> recipients, @Nullable AutoCloseable source,
+                    Consumer<Result> listener, int concurrency, @Nullable RateLimiter rateLimiter,
+                    @Nullable RetryPolicy retryPolicy) {
+            this.bodies = bodies;
+            this.recipients = Objects.requireNonNull(recipients, "recipients");
+            this.source = source;
+            this.listener = Objects.requireNonNull(listener, "listener");
+            this.concurrency = concurrency;
+            this.rateLimiter = rateLimiter;
+            this.retryPolicy = retryPolicy;
+        }
+
+        /**
+         * @return future completed when results for all recipients are passed to listener. It is cancelled if job
+         * was cancelled and fails if recipients iterator threw exception.
+         */
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Stops taking new recipients and cancels messages in flight.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (CompletableFuture<SendMessageResult> send : inFlightSends) {
+                send.cancel(true);
+            }
+
+            drain();
+        }
+
+        /**
+         * @return number of recipients message was sent to or is being sent to
+         */
+        public long getSubmittedCount() {
+            return submitted.sum();
+        }
+
+        public long getSucceededCount() {
+            return succeeded.sum();
+        }
+
+        public long getFailedCount() {
+            return failed.sum();
+        }
+
+        public int getInFlightCount() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return average time from start of send to result including waiting for rate limiter and retries
+         */
+        public long getMeanLatencyNanos() {
+            long completed = succeeded.sum() + failed.sum();
+            return completed == 0 ? 0 : latencyTotal.sum() / completed;
+        }
+
+        public long getMaxLatencyNanos() {
+            return latencyMax.get();
+        }
+
+        /**
+         * Sends messages until concurrency limit is reached. Sends completing synchronously call it recursively, so
+         * calls are counted and only outermost one does the work.
+         */
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                while (!cancelled && !exhausted && inFlight.get() < concurrency) {
+                    Target target;
+                    try {
+                        if (!recipients.hasNext()) {
+                            exhausted = true;
+                            break;
+                        }
+
+                        target = recipients.next();
+                    } catch (RuntimeException e) {
+                        recipientsFailure = e;
+                        exhausted = true;
+                        break;
+                    }
+
+                    inFlight.incrementAndGet();
+                    submitted.increment();
+                    send(target);
+                }
+
+                if ((exhausted || cancelled) && inFlight.get() == 0) {
+                    finish();
+                }
+            } while (drainRequests.decrementAndGet() != 0);
+        }
+
+        private void send(Target target) {
+            long startTime = System.nanoTime();
+            byte[] body;
+            try {
+                body = bodies.apply(target);
+            } catch (RuntimeException e) {
+                onComplete(new Result(target, null, e, System.nanoTime() - startTime));
+                return;
+            }
+
+            SendMessageQuery query = new SendSerializedMessageQuery(client, body);
+            if (target.chat) {
+                query.chatId(target.id);
+            } else {
+                query.userId(target.id);
+            }
+
+            query.rateLimiter(rateLimiter).retryPolicy(retryPolicy);
+            CompletableFuture<SendMessageResult> future = query.enqueueAsync();
+            inFlightSends.add(future);
+            future.whenComplete((result, e) -> {
+                inFlightSends.remove(future);
+                onComplete(new Result(target, result, e, System.nanoTime() - startTime));
+            });
+        }
+
+        private void onComplete(Result result) {
+            if (result.isSuccess()) {
+                succeeded.increment();
+            } else {
+                failed.increment();
+            }
+
+            latencyTotal.add(result.latencyNanos);
+            latencyMax.accumulate(result.latencyNanos);
+            try {
+                listener.accept(result);
+            } catch (RuntimeException e) {
+                LOG.error("Broadcast listener failed on {}", result, e);
+            }
+
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+        private void finish() {
+            if (finished) {
+                return;
+            }
+
+            finished = true;
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (Exception e) {
+                    LOG.warn("Failed to close broadcast recipients", e);
+                }
+            }
+
+            if (recipientsFailure != null) {
+                completion.completeExceptionally(recipientsFailure);
+            } else if (cancelled) {
+                completion.cancel(false);
+            } else {
+                completion.complete(null);
+            }
+        }
+    }
+
+    public static final class Target {
+        private final boolean chat;
+        private final long id;
+
+        private Target(boolean chat, long id) {
+            this.chat = chat;
+            this.id = id;
+        }
+
+        public static Target chat(long chatId) {
+            return new Target(true, chatId);
+        }
+
+        public static Target user(long userId) {
+            return new Target(false, userId);
+        }
+
+        public boolean isChat() {
+            return chat;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Target other = (Target) o;
+            return chat == other.chat && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Boolean.hashCode(chat) + Long.hashCode(id);
+        }
+
+        @Override
+        public String toString() {
+            return (chat ? "chat " : "user ") + id;
+        }
+    }
+
+    public static final class Result {
+        private final Target target;
+        private final SendMessageResult result;
+        private final Throwable error;
+        private final long latencyNanos;
+
+        Result(Target target, @Nullable SendMessageResult result, @Nullable Throwable error, long latencyNanos) {
+            this.target = target;
+            this.result = result;
+            this.error = error;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        @Nullable
+        public SendMessageResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return {@code APIException}, {@code ClientException}, {@link java.util.concurrent.CancellationException}
+         * or exception thrown while binding message variables if message was not sent
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{target=" + target + ", error=" + error + ", latencyNanos=" + latencyNanos + '}';
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.broadcast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.queries.SendSerializedMessageQuery;
+
+/**
+ * Message body serialized once and sent many times.
+ * <p>
+ * Strings of message (text, button captions, payloads) may contain placeholders like <code>{{name}}</code>. Their
+ * positions are found in serialized JSON once, so binding values only copies fixed parts around them and escapes
+ * values instead of serializing the whole message again. Use bytes with {@link SendSerializedMessageQuery}.
+ * <p>
+ * Prepared message is immutable and can be shared between threads.
+ */
+public class PreparedMessage {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] bytes;
+    // offsets of placeholders in bytes: start, end (exclusive) pairs
+    private final int[] placeholders;
+    // variable name of every placeholder
+    private final String[] names;
+    private final List<String> variables;
+
+    private PreparedMessage(byte[] bytes, int[] placeholders, String[] names) {
+        this.bytes = bytes;
+        this.placeholders = placeholders;
+        this.names = names;
+        Set<String> unique = new LinkedHashSet<>();
+        Collections.addAll(unique, names);
+        this.variables = Collections.unmodifiableList(new ArrayList<>(unique));
+    }
+
+    public static PreparedMessage prepare(TamTamSerializer serializer, NewMessageBody body)
+            throws SerializationException {
+        return parse(serializer.serialize(body));
+    }
+
+    /**
+     * @param json serialized {@link NewMessageBody}
+     */
+    public static PreparedMessage parse(byte[] json) {
+        Objects.requireNonNull(json, "json");
+        List<Integer> offsets = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int i = 0;
+        while (i < json.length - 1) {
+            if (json[i] != '{' || json[i + 1] != '{') {
+                i++;
+                continue;
+            }
+
+            int nameEnd = i + 2;
+            while (nameEnd < json.length && isNameChar(json[nameEnd])) {
+                nameEnd++;
+            }
+
+            boolean closed = nameEnd + 1 < json.length && json[nameEnd] == '}' && json[nameEnd + 1] == '}';
+            if (nameEnd == i + 2 || !closed) {
+                i++;
+                continue;
+            }
+
+            offsets.add(i);
+            offsets.add(nameEnd + 2);
+            names.add(new String(json, i + 2, nameEnd - i - 2, StandardCharsets.US_ASCII));
+            i = nameEnd + 2;
+        }
+
+        int[] placeholders = new int[offsets.size()];
+        for (int j = 0; j < placeholders.length; j++) {
+            placeholders[j] = offsets.get(j);
+        }
+
+        return new PreparedMessage(json, placeholders, names.toArray(new String[0]));
+    }
+
+    /**
+     * @return names of variables in order of first appearance
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return serialized message with placeholders left as is. Returned array is shared and must not be modified.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param values value of every variable of message
+     * @return serialized message with placeholders replaced by values
+     * @throws IllegalArgumentException if value of some variable is missing
+     */
+    public byte[] bind(Map<String, String> values) {
+        if (names.length == 0) {
+            return bytes;
+        }
+
+        String[] bound = new String[names.length];
+        int length = bytes.length;
+        for (int i = 0; i < names.length; i++) {
+            String value = values.get(names[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing value of variable " + names[i]);
+            }
+
+            bound[i] = value;
+            length += escapedLength(value) - (placeholders[2 * i + 1] - placeholders[2 * i]);
+        }
+
+        byte[] result = new byte[length];
+        int position = 0;
+        int resultPosition = 0;
+        for (int i = 0; i < names.length; i++) {
+            int start = placeholders[2 * i];
+            System.arraycopy(bytes, position, result, resultPosition, start - position);
+            resultPosition = writeEscaped(bound[i], result, resultPosition + start - position);
+            position = placeholders[2 * i + 1];
+        }
+
+        System.arraycopy(bytes, position, result, resultPosition, bytes.length - position);
+        return result;
+    }
+
+    /**
+     * @return number of bytes value takes as content of JSON string in UTF-8
+     */
+    private static int escapedLength(String value) {
+        int result = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || shortEscape(c) != 0) {
+                result += 2;
+            } else if (c < 0x20) {
+                result += 6;
+            } else if (c < 0x80) {
+                result += 1;
+            } else if (c < 0x800) {
+                result += 2;
+            } else if (isSurrogatePair(value, i)) {
+                result += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                result += 1;
+            } else {
+                result += 3;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes value as content of JSON string in UTF-8.
+     *
+     * @return position after written value
+     */
+    private static int writeEscaped(String value, byte[] out, int position) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out[position++] = '\\';
+                out[position++] = (byte) c;
+            } else if (shortEscape(c) != 0) {
+                out[position++] = '\\';
+                out[position++] = shortEscape(c);
+            } else if (c < 0x20) {
+                out[position++] = '\\';
+                out[position++] = 'u';
+                out[position++] = '0';
+                out[position++] = '0';
+                out[position++] = HEX[c >> 4];
+                out[position++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate can not be encoded
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * @return letter of two-character escape sequence of control character or zero if it has none
+     */
+    private static byte shortEscape(char c) {
+        switch (c) {
+            case '\n':
+                return 'n';
+            case '\r':
+                return 'r';
+            case '\t':
+                return 't';
+            case '\b':
+                return 'b';
+            case '\f':
+                return 'f';
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    private static boolean isNameChar(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_';
+    }
+}
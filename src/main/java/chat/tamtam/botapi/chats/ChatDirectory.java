@@ -0,0 +1,365 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.exceptions.APIException;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatList;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+import chat.tamtam.botapi.util.LongObjectMap;
+
+/**
+ * Local copy of all chats bot participates in.
+ * <p>
+ * Directory is filled by {@link #load()} paging through {@code getChats} once and then kept current by updates passed
+ * to {@link #apply(Update)}: chats are fetched when bot is added, dropped when bot is removed and renamed on title
+ * change. Chats are stored in {@link LongObjectMap}, so chat ids are not boxed.
+ */
+public class ChatDirectory {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int PAGE_SIZE = 100;
+
+    private final TamTamBotAPI api;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongObjectMap<Chat> chats = new LongObjectMap<>();
+    // chats requested after bot was added, value identifies request so stale responses are dropped
+    private final LongObjectMap<Object> pendingFetches = new LongObjectMap<>();
+    private final UpdateVisitor updateVisitor = new UpdateVisitor();
+    private final LongAdder fetchErrors = new LongAdder();
+    // chats changed by updates while load is in progress, their state wins over loaded one
+    @Nullable
+    private LongObjectMap<Boolean> changedWhileLoading;
+    // titles of chats renamed while load is in progress before they got to directory, applied to loaded chats
+    @Nullable
+    private LongObjectMap<String> renamedWhileLoading;
+
+    public ChatDirectory(TamTamBotAPI api) {
+        this.api = Objects.requireNonNull(api, "api");
+    }
+
+    /**
+     * Replaces content of directory by all chats returned by API. Updates may be applied while loading: chats they
+     * change keep their updated state instead of loaded one.
+     *
+     * @return number of chats in directory after load
+     */
+    public synchronized int load() throws APIException, ClientException {
+        lock.writeLock().lock();
+        try {
+            changedWhileLoading = new LongObjectMap<>();
+            renamedWhileLoading = new LongObjectMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LongObjectMap<Chat> loaded = new LongObjectMap<>();
+        try {
+            Long marker = null;
+            do {
+                ChatList page = api.getChats().count(PAGE_SIZE).marker(marker).execute();
+                for (Chat chat : page.getChats()) {
+                    loaded.put(chat.getChatId(), chat);
+                }
+
+                marker = page.getMarker();
+            } while (marker != null);
+        } catch (APIException | ClientException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changedWhileLoading = null;
+                renamedWhileLoading = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            changedWhileLoading.forEach((chatId, changed) -> {
+                Chat current = chats.get(chatId);
+                if (current == null) {
+                    loaded.remove(chatId);
+                } else {
+                    loaded.put(chatId, current);
+                }
+            });
+            renamedWhileLoading.forEach((chatId, title) -> {
+                Chat chat = loaded.get(chatId);
+                if (chat != null && !changedWhileLoading.containsKey(chatId)) {
+                    loaded.put(chatId, withTitle(chat, title));
+                }
+            });
+            changedWhileLoading = null;
+            renamedWhileLoading = null;
+            chats = loaded;
+            return chats.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies changes carried by update. Updates not related to chats are ignored.
+     */
+    public void apply(Update update) {
+        update.visit(updateVisitor);
+    }
+
+    @Nullable
+    public Chat get(long chatId) {
+        lock.readLock().lock();
+        try {
+            return chats.get(chatId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(long chatId) {
+        lock.readLock().lock();
+        try {
+            return chats.containsKey(chatId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return chats.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return snapshot of all chats in no particular order
+     */
+    public List<Chat> getChats() {
+        lock.readLock().lock();
+        try {
+            List<Chat> result = new ArrayList<>(chats.size());
+            chats.forEach((id, chat) -> result.add(chat));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(Chat chat) {
+        lock.writeLock().lock();
+        try {
+            pendingFetches.remove(chat.getChatId());
+            chats.put(chat.getChatId(), chat);
+            markChanged(chat.getChatId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long chatId) {
+        lock.writeLock().lock();
+        try {
+            pendingFetches.remove(chatId);
+            chats.remove(chatId);
+            markChanged(chatId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of chats failed to fetch after bot was added to them
+     */
+    public long getFetchErrorCount() {
+        return fetchErrors.sum();
+    }
+
+    /**
+     * @return number of chats being fetched
+     */
+    int getPendingFetchCount() {
+        lock.readLock().lock();
+        try {
+            return pendingFetches.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void fetch(long chatId) {
+        Object request = new Object();
+        lock.writeLock().lock();
+        try {
+            pendingFetches.put(chatId, request);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            api.getChat(chatId).enqueueAsync().whenComplete((chat, e) -> {
+                if (e != null) {
+                    onFetchFailed(chatId, request, e);
+                    return;
+                }
+
+                lock.writeLock().lock();
+                try {
+                    if (pendingFetches.get(chatId) == request) {
+                        pendingFetches.remove(chatId);
+                        chats.put(chatId, chat);
+                        markChanged(chatId);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+        } catch (ClientException e) {
+            onFetchFailed(chatId, request, e);
+        }
+    }
+
+    private void onFetchFailed(long chatId, Object request, Throwable e) {
+        fetchErrors.increment();
+        LOG.warn("Failed to fetch chat {}", chatId, e);
+        lock.writeLock().lock();
+        try {
+            // newer fetch of the same chat may already be in progress
+            if (pendingFetches.get(chatId) == request) {
+                pendingFetches.remove(chatId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rename(long chatId, String title) {
+        lock.writeLock().lock();
+        try {
+            Chat chat = chats.get(chatId);
+            if (chat != null) {
+                chats.put(chatId, withTitle(chat, title));
+                markChanged(chatId);
+            } else if (renamedWhileLoading != null) {
+                // loaded chat may still have old title
+                renamedWhileLoading.put(chatId, title);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // must be called under write lock
+    private void markChanged(long chatId) {
+        if (changedWhileLoading != null) {
+            changedWhileLoading.put(chatId, Boolean.TRUE);
+        }
+    }
+
+    private static Chat withTitle(Chat chat, String title) {
+        return new Chat(chat.getChatId(), chat.getType(), chat.getStatus(), title, chat.getIcon(),
+                chat.getLastEventTime(), chat.getParticipantsCount(), chat.isPublic(), chat.getDescription())
+                .ownerId(chat.getOwnerId())
+                .participants(chat.getParticipants())
+                .link(chat.getLink());
+    }
+
+    private class UpdateVisitor implements Update.Visitor {
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            if (model.getChatId() != null) {
+                fetch(model.getChatId());
+            }
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            if (model.getChatId() != null) {
+                remove(model.getChatId());
+            }
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            if (model.getChatId() != null) {
+                rename(model.getChatId(), model.getTitle());
+            }
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.exceptions.APIException;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatMember;
+import chat.tamtam.botapi.model.ChatMembersList;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+import chat.tamtam.botapi.util.LongHashSet;
+import chat.tamtam.botapi.util.LongObjectMap;
+
+/**
+ * Keeps ids of chat members in memory.
+ * <p>
+ * Members of chat are loaded by paging {@code getMembers} on first request for this chat. After that roster is kept
+ * current by updates passed to {@link #apply(Update)}. Roster is reloaded lazily on next request when it has drifted:
+ * update added member that was already known or removed unknown one, or {@link #verify(long, int)} found different
+ * number of members.
+ */
+public class ChatRoster {
+    private static final int PAGE_SIZE = 100;
+
+    private final TamTamBotAPI api;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongObjectMap<Members> chats = new LongObjectMap<>();
+    private final UpdateVisitor updateVisitor = new UpdateVisitor();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder drifts = new LongAdder();
+
+    public ChatRoster(TamTamBotAPI api) {
+        this.api = Objects.requireNonNull(api, "api");
+    }
+
+    /**
+     * Checks membership of user. Calls API only if chat members are not loaded yet or roster has drifted.
+     */
+    public boolean isMember(long chatId, long userId) throws APIException, ClientException {
+        Members members = getLoaded(chatId);
+        lock.lock();
+        try {
+            return members.userIds.contains(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return ids of all chat members in no particular order
+     */
+    public long[] getMembers(long chatId) throws APIException, ClientException {
+        Members members = getLoaded(chatId);
+        lock.lock();
+        try {
+            return members.userIds.toArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of chat members
+     */
+    public int getMemberCount(long chatId) throws APIException, ClientException {
+        Members members = getLoaded(chatId);
+        lock.lock();
+        try {
+            return members.userIds.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies membership changes carried by update. Updates of chats not loaded yet are ignored.
+     */
+    public void apply(Update update) {
+        update.visit(updateVisitor);
+    }
+
+    /**
+     * Compares number of loaded members with actual one, for example {@link chat.tamtam.botapi.model.Chat#getParticipantsCount()}.
+     * Roster is reloaded on next request if they differ.
+     */
+    public void verify(long chatId, int memberCount) {
+        lock.lock();
+        try {
+            Members members = chats.get(chatId);
+            if (members != null && members.userIds != null && members.userIds.size() != memberCount) {
+                drifted(members);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets members of chat, so they will be loaded again on next request.
+     */
+    public void invalidate(long chatId) {
+        lock.lock();
+        try {
+            chats.remove(chatId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of rosters loaded from API
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * @return number of times roster was found inconsistent with updates
+     */
+    public long getDriftCount() {
+        return drifts.sum();
+    }
+
+    private Members getLoaded(long chatId) throws APIException, ClientException {
+        Members members;
+        lock.lock();
+        try {
+            members = chats.get(chatId);
+            if (members == null) {
+                members = new Members();
+                chats.put(chatId, members);
+            } else if (members.userIds != null && !members.stale) {
+                return members;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        load(chatId, members);
+        return members;
+    }
+
+    private void load(long chatId, Members members) throws APIException, ClientException {
+        // one load per chat at a time, concurrent callers wait for its result
+        synchronized (members) {
+            lock.lock();
+            try {
+                if (members.userIds != null && !members.stale) {
+                    return;
+                }
+
+                members.addedWhileLoading = new LongHashSet();
+                members.removedWhileLoading = new LongHashSet();
+            } finally {
+                lock.unlock();
+            }
+
+            LongHashSet loaded = new LongHashSet();
+            try {
+                Long marker = null;
+                do {
+                    ChatMembersList page = api.getMembers(chatId).count(PAGE_SIZE).marker(marker).execute();
+                    for (ChatMember member : page.getMembers()) {
+                        loaded.add(member.getUserId());
+                    }
+
+                    marker = page.getMarker();
+                } while (marker != null);
+            } catch (APIException | ClientException | RuntimeException e) {
+                lock.lock();
+                try {
+                    members.addedWhileLoading = null;
+                    members.removedWhileLoading = null;
+                } finally {
+                    lock.unlock();
+                }
+
+                throw e;
+            }
+
+            lock.lock();
+            try {
+                members.addedWhileLoading.forEach(loaded::add);
+                members.removedWhileLoading.forEach(loaded::remove);
+                members.addedWhileLoading = null;
+                members.removedWhileLoading = null;
+                members.userIds = loaded;
+                members.stale = false;
+            } finally {
+                lock.unlock();
+            }
+
+            loads.increment();
+        }
+    }
+
+    private void onAdded(long chatId, long userId) {
+        lock.lock();
+        try {
+            Members members = chats.get(chatId);
+            if (members == null) {
+                return;
+            }
+
+            if (members.addedWhileLoading != null) {
+                members.addedWhileLoading.add(userId);
+                members.removedWhileLoading.remove(userId);
+            }
+
+            if (members.userIds != null && !members.userIds.add(userId)) {
+                drifted(members);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onRemoved(long chatId, long userId) {
+        lock.lock();
+        try {
+            Members members = chats.get(chatId);
+            if (members == null) {
+                return;
+            }
+
+            if (members.addedWhileLoading != null) {
+                members.removedWhileLoading.add(userId);
+                members.addedWhileLoading.remove(userId);
+            }
+
+            if (members.userIds != null && !members.userIds.remove(userId)) {
+                drifted(members);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drifted(Members members) {
+        if (!members.stale) {
+            members.stale = true;
+            drifts.increment();
+        }
+    }
+
+    /**
+     * Fields are guarded by {@link #lock}.
+     */
+    private static class Members {
+        // null until first load completes
+        private LongHashSet userIds;
+        private boolean stale;
+        // changes received while load is in progress, applied on top of loaded members
+        private LongHashSet addedWhileLoading;
+        private LongHashSet removedWhileLoading;
+    }
+
+    private class UpdateVisitor implements Update.Visitor {
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            invalidate(model.getChatId());
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            invalidate(model.getChatId());
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+            onAdded(model.getChatId(), model.getUserId());
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+            onRemoved(model.getChatId(), model.getUserId());
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+        }
+    }
+}
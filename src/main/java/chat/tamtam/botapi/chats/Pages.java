@@ -0,0 +1,274 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jetbrains.annotations.Nullable;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatMember;
+
+/**
+ * Iterates over results of marker-based queries page by page.
+ * <p>
+ * Pages are requested lazily: first page is requested when iteration starts. While page is consumed, next
+ * {@link #prefetch(int)} pages are requested in background one after another, so consumer waits for network only when
+ * it is faster than API.
+ * <p>
+ * Failed requests are thrown from {@link Iterator#hasNext()} as {@link CompletionException} with {@code APIException}
+ * or {@code ClientException} as cause. Iterators and streams should be closed if iteration is stopped early, so
+ * prefetched requests are cancelled.
+ */
+public class Pages<T> implements Iterable<T> {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final Fetcher<T> fetcher;
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
+    private volatile int prefetch = 1;
+
+    Pages(Fetcher<T> fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * @return all chats of bot
+     */
+    public static Pages<Chat> chats(TamTamBotAPI api) {
+        Objects.requireNonNull(api, "api");
+        return new Pages<>((count, marker) -> toPage(api.getChats().count(count).marker(marker).enqueueAsync(),
+                list -> new Page<>(list.getChats(), list.getMarker())));
+    }
+
+    /**
+     * @return all members of chat
+     */
+    public static Pages<ChatMember> members(TamTamBotAPI api, long chatId) {
+        Objects.requireNonNull(api, "api");
+        return new Pages<>((count, marker) -> {
+            try {
+                return toPage(api.getMembers(chatId).count(count).marker(marker).enqueueAsync(),
+                        list -> new Page<>(list.getMembers(), list.getMarker()));
+            } catch (ClientException e) {
+                CompletableFuture<Page<ChatMember>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        });
+    }
+
+    /**
+     * Unlike plain {@code thenApply} cancels request when resulting future is cancelled.
+     */
+    private static <R, T> CompletableFuture<Page<T>> toPage(CompletableFuture<R> request,
+                                                            Function<R, Page<T>> mapper) {
+        CompletableFuture<Page<T>> page = request.thenApply(mapper);
+        page.whenComplete((result, e) -> {
+            if (page.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+
+        return page;
+    }
+
+    /**
+     * @param pageSize number of items requested by every query
+     */
+    public Pages<T> pageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param prefetch number of pages requested ahead of page being consumed. Zero disables prefetching.
+     */
+    public Pages<T> prefetch(int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must not be negative");
+        }
+
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    @Override
+    public PageIterator<T> iterator() {
+        return new PageIterator<>(fetcher, pageSize, prefetch);
+    }
+
+    /**
+     * @return sequential stream over all items. Closing stream cancels prefetched requests.
+     */
+    public Stream<T> stream() {
+        PageIterator<T> iterator = iterator();
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    public static class PageIterator<T> implements Iterator<T>, AutoCloseable {
+        private final Fetcher<T> fetcher;
+        private final int pageSize;
+        private final int prefetch;
+        private final ArrayDeque<CompletableFuture<Page<T>>> ahead = new ArrayDeque<>();
+        private CompletableFuture<Page<T>> tail;
+        private Iterator<T> current = Collections.emptyIterator();
+        private boolean lastPage;
+        private boolean closed;
+
+        PageIterator(Fetcher<T> fetcher, int pageSize, int prefetch) {
+            this.fetcher = fetcher;
+            this.pageSize = pageSize;
+            this.prefetch = prefetch;
+            this.tail = fetcher.fetch(pageSize, null);
+            ahead.add(tail);
+            // first page counts as one being consumed
+            fill(prefetch + 1);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (closed || lastPage) {
+                    return false;
+                }
+
+                if (ahead.isEmpty()) {
+                    tail = fetchAfter(tail);
+                    ahead.add(tail);
+                }
+
+                Page<T> page = ahead.poll().join();
+                if (page == null || page.marker == null) {
+                    lastPage = true;
+                    ahead.clear();
+                } else {
+                    fill(prefetch);
+                }
+
+                if (page != null) {
+                    current = page.items.iterator();
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+
+        /**
+         * Cancels prefetched requests. Iterator returns no more items after it is closed.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            current = Collections.emptyIterator();
+            for (CompletableFuture<Page<T>> page : ahead) {
+                page.cancel(true);
+            }
+
+            ahead.clear();
+        }
+
+        private void fill(int pages) {
+            while (ahead.size() < pages) {
+                tail = fetchAfter(tail);
+                ahead.add(tail);
+            }
+        }
+
+        /**
+         * Requests next page as soon as previous one arrives. Completes with {@code null} if previous page was last.
+         */
+        private CompletableFuture<Page<T>> fetchAfter(CompletableFuture<Page<T>> previous) {
+            CompletableFuture<Page<T>> next = new CompletableFuture<>();
+            previous.whenComplete((page, e) -> {
+                if (e != null) {
+                    next.completeExceptionally(e);
+                    return;
+                }
+
+                if (page == null || page.marker == null || next.isDone()) {
+                    next.complete(null);
+                    return;
+                }
+
+                CompletableFuture<Page<T>> request = fetcher.fetch(pageSize, page.marker);
+                request.whenComplete((result, error) -> {
+                    if (error != null) {
+                        next.completeExceptionally(error);
+                    } else {
+                        next.complete(result);
+                    }
+                });
+
+                // propagates cancellation of iterator to request in flight
+                next.whenComplete((result, error) -> {
+                    if (next.isCancelled()) {
+                        request.cancel(true);
+                    }
+                });
+            });
+
+            return next;
+        }
+    }
+
+    interface Fetcher<T> {
+        CompletableFuture<Page<T>> fetch(int count, @Nullable Long marker);
+    }
+
+    static class Page<T> {
+        private final List<T> items;
+        @Nullable
+        private final Long marker;
+
+        Page(List<T> items, @Nullable Long marker) {
+            this.items = items;
+            this.marker = marker;
+        }
+    }
+}
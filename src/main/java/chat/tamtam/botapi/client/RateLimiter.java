@@ -0,0 +1,328 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+import chat.tamtam.botapi.exceptions.RateLimitExceededException;
+
+/**
+ * Token bucket limiting rate of requests sent by {@link TamTamClient}.
+ * <p>
+ * Every request takes one token from global bucket and one from bucket of its recipient (chat or user passed as
+ * {@code chat_id}/{@code user_id} query param). Global rate adapts to server limits: it is halved on every
+ * {@code too.many.requests} error (at most once per {@link #cooldown(long, TimeUnit) cooldown}) and grows back
+ * slowly with every successful response.
+ * <p>
+ * When there are no tokens left, request either waits for them ({@link Mode#BLOCK}) or fails with
+ * {@link RateLimitExceededException} ({@link Mode#FAIL_FAST}).
+ */
+public class RateLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_RECIPIENTS = 10_000;
+
+    private final double maxRate;
+    private final double recipientRate;
+    private final Bucket global;
+    private final Map<Long, Bucket> chats = newBuckets();
+    private final Map<Long, Bucket> users = newBuckets();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tooManyRequests = new LongAdder();
+
+    private volatile Mode mode = Mode.BLOCK;
+    private double minRate;
+    private double recipientBurst;
+    private long cooldownNanos = NANOS_PER_SECOND;
+    private long nextDecreaseAt;
+
+    /**
+     * @param globalRate    maximum number of requests per second
+     * @param recipientRate maximum number of requests per second to single chat or user
+     */
+    public RateLimiter(double globalRate, double recipientRate) {
+        if (globalRate <= 0 || recipientRate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+
+        this.maxRate = globalRate;
+        this.recipientRate = recipientRate;
+        this.minRate = globalRate / 16;
+        this.recipientBurst = Math.max(1, recipientRate);
+        this.global = new Bucket(globalRate, Math.max(1, globalRate), System.nanoTime());
+        this.nextDecreaseAt = System.nanoTime();
+    }
+
+    public RateLimiter mode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @param burst number of requests that can be sent at once after idle period
+     */
+    public synchronized RateLimiter globalBurst(int burst) {
+        global.capacity = checkBurst(burst);
+        global.tokens = Math.min(global.tokens, burst);
+        return this;
+    }
+
+    /**
+     * @param burst number of requests that can be sent to single recipient at once after idle period
+     */
+    public synchronized RateLimiter recipientBurst(int burst) {
+        recipientBurst = checkBurst(burst);
+        chats.clear();
+        users.clear();
+        return this;
+    }
+
+    /**
+     * @param minRate global rate will never be decreased below this value
+     */
+    public synchronized RateLimiter minRate(double minRate) {
+        if (minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException("minRate must be positive and not greater than global rate");
+        }
+
+        this.minRate = minRate;
+        return this;
+    }
+
+    /**
+     * @param cooldown minimum time between two decreases of rate, so burst of errors from requests sent at the same
+     *                 time decreases rate only once
+     */
+    public synchronized RateLimiter cooldown(long cooldown, TimeUnit unit) {
+        this.cooldownNanos = unit.toNanos(cooldown);
+        return this;
+    }
+
+    /**
+     * Takes tokens for request.
+     *
+     * @return time in nanoseconds request must wait before sending
+     * @throws RateLimitExceededException if limiter is in {@link Mode#FAIL_FAST} mode and request would have to wait
+     */
+    public long acquire(@Nullable Long chatId, @Nullable Long userId) throws RateLimitExceededException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            Bucket recipient = recipientBucket(chatId, userId, now);
+            waitNanos = global.waitNanos(now);
+            if (recipient != null) {
+                waitNanos = Math.max(waitNanos, recipient.waitNanos(now));
+            }
+
+            if (waitNanos > 0 && mode == Mode.FAIL_FAST) {
+                rejected.increment();
+                throw new RateLimitExceededException("Rate limit exceeded, next request allowed in "
+                        + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+            }
+
+            global.tokens--;
+            if (recipient != null) {
+                recipient.tokens--;
+            }
+        }
+
+        if (waitNanos > 0) {
+            throttled.increment();
+            throttledNanos.add(waitNanos);
+        }
+
+        return waitNanos;
+    }
+
+    /**
+     * Decreases rate after server responded with {@code too.many.requests} error.
+     */
+    public synchronized void onTooManyRequests() {
+        tooManyRequests.increment();
+        long now = System.nanoTime();
+        if (now - nextDecreaseAt < 0) {
+            return;
+        }
+
+        nextDecreaseAt = now + cooldownNanos;
+        global.refill(now);
+        global.rate = Math.max(minRate, global.rate / 2);
+    }
+
+    /**
+     * Increases rate back to configured value after successful response.
+     */
+    public synchronized void onSuccess() {
+        if (global.rate >= maxRate) {
+            return;
+        }
+
+        global.refill(System.nanoTime());
+        global.rate = Math.min(maxRate, global.rate + maxRate / 100);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return current global rate in requests per second
+     */
+    public synchronized double getRate() {
+        return global.rate;
+    }
+
+    /**
+     * @return number of requests that had to wait for tokens
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return total time requests spent waiting for tokens
+     */
+    public long getThrottledTimeNanos() {
+        return throttledNanos.sum();
+    }
+
+    /**
+     * @return number of requests failed in {@link Mode#FAIL_FAST} mode
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of {@code too.many.requests} errors reported
+     */
+    public long getTooManyRequestsCount() {
+        return tooManyRequests.sum();
+    }
+
+    /**
+     * @return number of chats and users limiter currently tracks
+     */
+    synchronized int getRecipientCount() {
+        return chats.size() + users.size();
+    }
+
+    @Nullable
+    private Bucket recipientBucket(@Nullable Long chatId, @Nullable Long userId, long now) {
+        if (chatId != null) {
+            return recipientBucket(chats, chatId, now);
+        }
+
+        if (userId != null) {
+            return recipientBucket(users, userId, now);
+        }
+
+        return null;
+    }
+
+    private Bucket recipientBucket(Map<Long, Bucket> buckets, Long id, long now) {
+        Bucket bucket = buckets.get(id);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        evictIdle(buckets, now);
+        bucket = new Bucket(recipientRate, recipientBurst, now);
+        buckets.put(id, bucket);
+        return bucket;
+    }
+
+    private static Map<Long, Bucket> newBuckets() {
+        // access order keeps least recently used buckets first, they are the first to become full again
+        return new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private static void evictIdle(Map<Long, Bucket> buckets, long now) {
+        // full bucket is equal to new one, so it is safe to forget it. Scan stops at first bucket still in use, so
+        // every bucket is checked once on average. Above hard limit least recently used bucket is forgotten anyway:
+        // its recipient may get a burst earlier than expected, but memory stays bounded.
+        Iterator<Bucket> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            Bucket bucket = iterator.next();
+            bucket.refill(now);
+            if (bucket.tokens < bucket.capacity && buckets.size() < MAX_RECIPIENTS) {
+                return;
+            }
+
+            iterator.remove();
+        }
+    }
+
+    private static double checkBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+
+        return burst;
+    }
+
+    public enum Mode {
+        /**
+         * Request waits until tokens are available.
+         */
+        BLOCK,
+
+        /**
+         * Request fails with {@link RateLimitExceededException} if there are no tokens.
+         */
+        FAIL_FAST
+    }
+
+    private static class Bucket {
+        private double rate;
+        private double capacity;
+        private double tokens;
+        private long updatedAt;
+
+        private Bucket(double rate, double capacity, long now) {
+            this.rate = rate;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.updatedAt = now;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - updatedAt) * rate / NANOS_PER_SECOND);
+            updatedAt = now;
+        }
+
+        private long waitNanos(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                return 0;
+            }
+
+            // tokens may be negative if other requests already took them in advance
+            return (long) Math.ceil((1 - tokens) * NANOS_PER_SECOND / rate);
+        }
+    }
+}
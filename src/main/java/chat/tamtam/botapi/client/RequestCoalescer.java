@@ -0,0 +1,165 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.tamtam.botapi.exceptions.TransportClientException;
+
+/**
+ * Merges identical GET requests running at the same time into single HTTP call.
+ * <p>
+ * Request is identified by its full URL. Every caller gets its own future, so cancelling it (or its deadline) does
+ * not affect other callers; HTTP call is cancelled only when all callers have cancelled their futures. Completed
+ * requests are never reused: caller coming after response has arrived makes new request.
+ * <p>
+ * Only transports returning {@link CompletableFuture} are supported, requests of other transports are sent as is.
+ */
+public class RequestCoalescer {
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public Future<ClientResponse> get(String url, TamTamTransportClient transport) throws TransportClientException {
+        Flight existing = inFlight.get(url);
+        if (existing != null) {
+            Future<ClientResponse> view = existing.attach();
+            if (view != null) {
+                coalesced.increment();
+                return view;
+            }
+        }
+
+        sent.increment();
+        Future<ClientResponse> response = transport.get(url);
+        if (!(response instanceof CompletableFuture)) {
+            return response;
+        }
+
+        Flight flight = new Flight(url, (CompletableFuture<ClientResponse>) response);
+        Future<ClientResponse> view = flight.attach();
+        if (view == null) {
+            // already completed
+            return response;
+        }
+
+        // concurrent caller may have registered its own request, then both are sent
+        if (inFlight.putIfAbsent(url, flight) == null) {
+            flight.source.whenComplete((r, e) -> inFlight.remove(url, flight));
+        }
+
+        return view;
+    }
+
+    /**
+     * @return number of requests actually sent
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return number of requests served by requests already in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return number of distinct requests currently in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private class Flight {
+        private final String url;
+        private final CompletableFuture<ClientResponse> source;
+        private int viewers;
+        private boolean abandoned;
+
+        private Flight(String url, CompletableFuture<ClientResponse> source) {
+            this.url = url;
+            this.source = source;
+        }
+
+        synchronized Future<ClientResponse> attach() {
+            if (abandoned || source.isDone()) {
+                return null;
+            }
+
+            viewers++;
+            View view = new View(this);
+            source.whenComplete((response, e) -> {
+                if (e == null) {
+                    view.complete(response);
+                } else {
+                    view.completeExceptionally(e);
+                }
+            });
+
+            return view;
+        }
+
+        void detach() {
+            synchronized (this) {
+                if (--viewers > 0) {
+                    return;
+                }
+
+                abandoned = true;
+            }
+
+            inFlight.remove(url, this);
+            source.cancel(true);
+        }
+    }
+
+    private static class View extends CompletableFuture<ClientResponse> {
+        private final Flight flight;
+        private boolean detached;
+
+        private View(Flight flight) {
+            this.flight = flight;
+        }
+
+        /**
+         * Detaches from shared request even if view was already failed by deadline.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized (this) {
+                if (detached || flight.source.isDone()) {
+                    return cancelled;
+                }
+
+                detached = true;
+            }
+
+            flight.detach();
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+
+/**
+ * Caches responses of queries returning slowly changing data: chats, bot membership, bot info and subscriptions.
+ * <p>
+ * Raw responses are cached, so every caller still gets its own deserialized object. Every {@link Region} has its own
+ * TTL, total number of entries is bounded and least recently used entries are evicted first.
+ * Entries are invalidated by updates changing chats (see {@link #invalidate(Update)}) and by queries changing them
+ * through this client.
+ * <p>
+ * Invalidation of key drops responses to requests for the same key sent before it, so stale data is not cached.
+ * Keys are hashed to a fixed number of generation counters: invalidation rarely affects requests for other keys and
+ * takes no memory per key.
+ */
+public class ResponseCache {
+    /**
+     * Types of updates passed to {@link #invalidate(Update)} that can invalidate cached responses.
+     */
+    public static final Set<String> INVALIDATING_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            Update.BOT_ADDED, Update.BOT_REMOVED, Update.USER_ADDED, Update.USER_REMOVED,
+            Update.CHAT_TITLE_CHANGED)));
+
+    private static final int GENERATIONS = 256;
+
+    private final int maxSize;
+    private final Map<Key, Entry> entries;
+    private final Map<Region, Long> ttlNanos = new EnumMap<>(Region.class);
+    private final InvalidatingVisitor invalidatingVisitor = new InvalidatingVisitor();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final long[] generations = new long[GENERATIONS];
+
+    /**
+     * @param maxSize maximum number of cached responses
+     */
+    public ResponseCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= ResponseCache.this.maxSize) {
+                    return false;
+                }
+
+                evictions.increment();
+                return true;
+            }
+        };
+
+        ttl(Region.CHAT, 1, TimeUnit.MINUTES);
+        ttl(Region.MEMBERSHIP, 1, TimeUnit.MINUTES);
+        ttl(Region.MY_INFO, 10, TimeUnit.MINUTES);
+        ttl(Region.SUBSCRIPTIONS, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Sets time to live of responses of given region. Zero TTL disables caching of region.
+     */
+    public synchronized ResponseCache ttl(Region region, long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+
+        ttlNanos.put(region, unit.toNanos(ttl));
+        return this;
+    }
+
+    /**
+     * @return cached response or {@code null} if there is no fresh one
+     */
+    @Nullable
+    public synchronized ClientResponse get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.response;
+    }
+
+    /**
+     * @return current generation of key to pass to {@link #put(Key, ClientResponse, long)} once response arrives
+     */
+    public synchronized long getGeneration(Key key) {
+        return generations[indexOf(key)];
+    }
+
+    /**
+     * Caches successful response unless key was invalidated after request had been sent.
+     *
+     * @param generation value of {@link #getGeneration(Key)} taken before request was sent
+     */
+    public synchronized void put(Key key, ClientResponse response, long generation) {
+        long ttl = ttlNanos.get(key.region);
+        if (ttl == 0 || generations[indexOf(key)] != generation || response.getStatusCode() / 100 != 2) {
+            return;
+        }
+
+        entries.put(key, new Entry(response, System.nanoTime() + ttl));
+    }
+
+    public synchronized void invalidate(Key key) {
+        generations[indexOf(key)]++;
+        if (entries.remove(key) != null) {
+            invalidations.increment();
+        }
+    }
+
+    public void invalidate(Region region, long id) {
+        invalidate(Key.of(region, id));
+    }
+
+    /**
+     * Invalidates responses changed by update.
+     */
+    public void invalidate(Update update) {
+        update.visit(invalidatingVisitor);
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations[i]++;
+        }
+
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    /**
+     * Removes expired entries. Expired entries are also removed on access and by eviction.
+     */
+    public synchronized void cleanUp() {
+        long now = System.nanoTime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().expiresAt >= 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    private static int indexOf(Key key) {
+        int hash = key.hashCode();
+        return (hash ^ hash >>> 16) & (GENERATIONS - 1);
+    }
+
+    public enum Region {
+        CHAT, MEMBERSHIP, MY_INFO, SUBSCRIPTIONS
+    }
+
+    public static final class Key {
+        private final Region region;
+        private final long id;
+
+        private Key(Region region, long id) {
+            this.region = Objects.requireNonNull(region, "region");
+            this.id = id;
+        }
+
+        /**
+         * @param id chat id for chat-related regions, any constant for others
+         */
+        public static Key of(Region region, long id) {
+            return new Key(region, id);
+        }
+
+        public static Key of(Region region) {
+            return new Key(region, 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return id == other.id && region == other.region;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * region.ordinal() + Long.hashCode(id);
+        }
+
+        @Override
+        public String toString() {
+            return region + "#" + id;
+        }
+    }
+
+    private static class Entry {
+        private final ClientResponse response;
+        private final long expiresAt;
+
+        private Entry(ClientResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private class InvalidatingVisitor implements Update.Visitor {
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            invalidateChat(model.getChatId());
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            invalidateChat(model.getChatId());
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+            invalidateChat(model.getChatId());
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+            invalidateChat(model.getChatId());
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            if (model.getChatId() != null) {
+                invalidate(Region.CHAT, model.getChatId());
+            }
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+        }
+
+        private void invalidateChat(@Nullable Long chatId) {
+            if (chatId == null) {
+                return;
+            }
+
+            // membership of bot and number of participants are changed
+            invalidate(Region.CHAT, chatId);
+            invalidate(Region.MEMBERSHIP, chatId);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.tamtam.botapi.exceptions.AttachmentNotReadyException;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.exceptions.ServiceNotAvailableException;
+import chat.tamtam.botapi.exceptions.TooManyRequestsException;
+import chat.tamtam.botapi.exceptions.TransportClientException;
+
+/**
+ * Decides whether failed query should be sent again and when.
+ * <p>
+ * Retried are requests rejected by server before being processed ({@link TooManyRequestsException},
+ * {@link ServiceNotAvailableException}, {@link AttachmentNotReadyException}) and, for idempotent methods only,
+ * requests failed in transport. Delay grows exponentially with every attempt, half of it is random so clients do not
+ * retry in lockstep.
+ * <p>
+ * Total retry traffic is capped by budget: every original request deposits {@code ratio} of retry, every retry
+ * withdraws one. Budget is also refilled by {@code minRetriesPerSecond} so rare requests can still be retried.
+ */
+public class RetryPolicy {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxRetries;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final ConcurrentMap<String, LongAdder> retries = new ConcurrentHashMap<>();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    private double ratio = 0.1;
+    private double minRetriesPerSecond = 1;
+    private double maxBudget = 10;
+    private double budget = maxBudget;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param maxRetries maximum number of retries of single query
+     * @param baseDelay  delay before first retry
+     * @param maxDelay   maximum delay between retries
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, TimeUnit unit) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Delays must be positive and baseDelay must not exceed maxDelay");
+        }
+
+        this.maxRetries = maxRetries;
+        this.baseDelayNanos = unit.toNanos(baseDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Configures retry budget. Budget starts full.
+     *
+     * @param ratio               share of requests that can be retried
+     * @param minRetriesPerSecond retries allowed regardless of number of requests
+     * @param maxBudget           maximum number of retries accumulated in budget
+     */
+    public synchronized RetryPolicy budget(double ratio, double minRetriesPerSecond, int maxBudget) {
+        if (ratio < 0 || minRetriesPerSecond < 0 || maxBudget < 1) {
+            throw new IllegalArgumentException("Invalid budget");
+        }
+
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBudget = maxBudget;
+        this.budget = maxBudget;
+        return this;
+    }
+
+    /**
+     * Must be called once for every original (not retried) request.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(maxBudget, budget + ratio);
+    }
+
+    /**
+     * @param endpoint   name of endpoint for statistics
+     * @param idempotent whether request can be safely sent more than once
+     * @param failure    exception query failed with
+     * @param retry      number of retries already made
+     * @return delay in nanoseconds before next attempt or -1 if query must not be retried
+     */
+    public long backoff(String endpoint, boolean idempotent, Throwable failure, int retry) {
+        if (retry >= maxRetries || !isRetryable(failure, idempotent)) {
+            return -1;
+        }
+
+        if (!withdraw()) {
+            budgetExhausted.increment();
+            return -1;
+        }
+
+        retries.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+        long delay = maxDelayNanos >> Math.min(retry, 62) < baseDelayNanos
+                ? maxDelayNanos
+                : Math.min(maxDelayNanos, baseDelayNanos << retry);
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    public boolean isRetryable(Throwable failure, boolean idempotent) {
+        if (failure instanceof TooManyRequestsException
+                || failure instanceof ServiceNotAvailableException
+                || failure instanceof AttachmentNotReadyException) {
+            return true;
+        }
+
+        return idempotent && failure instanceof ClientException
+                && failure.getCause() instanceof TransportClientException;
+    }
+
+    /**
+     * @return number of retries of every endpoint
+     */
+    public Map<String, Long> getRetryCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        retries.forEach((endpoint, count) -> counts.put(endpoint, count.sum()));
+        return counts;
+    }
+
+    public long getRetryCount(String endpoint) {
+        LongAdder count = retries.get(endpoint);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return number of retries refused because budget was exhausted
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.sum();
+    }
+
+    private synchronized boolean withdraw() {
+        long now = System.nanoTime();
+        budget = Math.min(maxBudget, budget + (now - refilledAt) * minRetriesPerSecond / NANOS_PER_SECOND);
+        refilledAt = now;
+        if (budget < 1) {
+            return false;
+        }
+
+        budget--;
+        return true;
+    }
+}
@@ -21,9 +21,16 @@
 package chat.tamtam.botapi.client;
 
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.Nullable;
+
+import chat.tamtam.botapi.Version;
 
 import chat.tamtam.botapi.client.impl.JacksonSerializer;
 import chat.tamtam.botapi.client.impl.OkHttpTransportClient;
+import chat.tamtam.botapi.metrics.QueryMetrics;
 
 /**
  * @author alexandrchuprin
@@ -36,12 +43,20 @@ public class TamTamClient {
     private final TamTamTransportClient transport;
     private final TamTamSerializer serializer;
     private final String endpoint;
+    private final String commonQuery;
+    private volatile Executor callbackExecutor = ForkJoinPool.commonPool();
+    private volatile RateLimiter rateLimiter;
+    private volatile RetryPolicy retryPolicy;
+    private volatile RequestCoalescer requestCoalescer;
+    private volatile ResponseCache responseCache;
+    private volatile QueryMetrics metrics;
 
     public TamTamClient(String accessToken, TamTamTransportClient transport, TamTamSerializer serializer) {
         this.endpoint = createEndpoint();
         this.accessToken = Objects.requireNonNull(accessToken, "accessToken");
         this.transport = Objects.requireNonNull(transport, "transport");
         this.serializer = Objects.requireNonNull(serializer, "serializer");
+        this.commonQuery = "access_token=" + accessToken + "&v=" + Version.get();
     }
 
     public static TamTamClient create(String accessToken) {
@@ -59,6 +74,13 @@ public class TamTamClient {
         return accessToken;
     }
 
+    /**
+     * @return query string parameters sent with every request: access token and API version
+     */
+    public String getCommonQuery() {
+        return commonQuery;
+    }
+
     public TamTamSerializer getSerializer() {
         return serializer;
     }
@@ -67,6 +89,78 @@ public class TamTamClient {
         return transport;
     }
 
+    /**
+     * @return executor used to deserialize responses of queries sent by {@code enqueueAsync()}
+     */
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = Objects.requireNonNull(callbackExecutor, "callbackExecutor");
+    }
+
+    @Nullable
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter limiter applied to all queries before they are sent, {@code null} disables limiting
+     */
+    public void setRateLimiter(@Nullable RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Nullable
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy policy applied to all queries that do not set their own, {@code null} disables retries
+     */
+    public void setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Nullable
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * @param requestCoalescer merges identical GET requests in flight, {@code null} disables merging
+     */
+    public void setRequestCoalescer(@Nullable RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    @Nullable
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @param responseCache cache for responses of chat, membership, bot info and subscriptions queries,
+     *                      {@code null} disables caching
+     */
+    public void setResponseCache(@Nullable ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Nullable
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics receiver of measurements of every request, {@code null} disables measuring
+     */
+    public void setMetrics(@Nullable QueryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     private String createEndpoint() {
         String env = getEnvironment(ENDPOINT_ENV_VAR_NAME);
         if (env != null) {
@@ -20,9 +20,16 @@
 
 package chat.tamtam.botapi.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
 import org.jetbrains.annotations.Nullable;
 
 import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
 
 /**
  * @author alexandrchuprin
@@ -33,4 +40,75 @@ public interface TamTamSerializer {
 
     @Nullable
     <T> T deserialize(@Nullable String data, Class<T> responseType) throws SerializationException;
+
+    /**
+     * Default implementation decodes data as UTF-8 string and passes it to {@link #deserialize(String, Class)}.
+     */
+    @Nullable
+    default <T> T deserialize(@Nullable byte[] data, Class<T> responseType) throws SerializationException {
+        return deserialize(data == null ? null : new String(data, StandardCharsets.UTF_8), responseType);
+    }
+
+    /**
+     * Default implementation reads the whole stream and passes it to {@link #deserialize(byte[], Class)}.
+     */
+    @Nullable
+    default <T> T deserialize(@Nullable InputStream data, Class<T> responseType) throws SerializationException {
+        return deserialize(Streams.readFully(data), responseType);
+    }
+
+    /**
+     * Parses serialized {@link UpdateList} and passes every {@link Update} to visitor as soon as it is parsed,
+     * without building intermediate list. Default implementation deserializes whole {@link UpdateList} first.
+     *
+     * @param types if not null, updates of other types are skipped without being bound to model objects
+     *
+     * @return marker of update list, or null if there is no marker in data
+     */
+    @Nullable
+    default Long deserializeUpdates(@Nullable byte[] data, Update.Visitor visitor, @Nullable Set<String> types)
+            throws SerializationException {
+        return deserializeUpdates(data == null ? null : new ByteArrayInputStream(data), visitor, types);
+    }
+
+    /**
+     * @see #deserializeUpdates(byte[], Update.Visitor, Set)
+     */
+    @Nullable
+    default Long deserializeUpdates(@Nullable InputStream data, Update.Visitor visitor, @Nullable Set<String> types)
+            throws SerializationException {
+        UpdateList updateList = deserialize(data, UpdateList.class);
+        if (updateList == null) {
+            return null;
+        }
+
+        for (Update update : updateList.getUpdates()) {
+            // update of unknown type is bound to base class that has no type, so it never matches filter
+            if (types == null || update.getClass() != Update.class && types.contains(update.getType())) {
+                update.visit(visitor);
+            }
+        }
+
+        return updateList.getMarker();
+    }
+
+    /**
+     * Parses single serialized {@link Update}, for example webhook payload. Default implementation deserializes update
+     * first and checks its type afterwards.
+     *
+     * @param types if not null, updates of other types are skipped without being bound to model objects
+     *
+     * @return parsed update or null if data is empty or update type is not one of {@code types}
+     */
+    @Nullable
+    default Update deserializeUpdate(@Nullable InputStream data, @Nullable Set<String> types)
+            throws SerializationException {
+        Update update = deserialize(data, Update.class);
+        if (update == null || types == null) {
+            return update;
+        }
+
+        // update of unknown type is bound to base class that has no type, so it never matches filter
+        return update.getClass() != Update.class && types.contains(update.getType()) ? update : null;
+    }
 }
@@ -21,6 +21,8 @@
 package chat.tamtam.botapi.client;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.concurrent.Future;
 
@@ -38,6 +40,18 @@ public interface TamTamTransportClient {
 
     Future<ClientResponse> post(String url, String filename, InputStream inputStream) throws TransportClientException;
 
+    /**
+     * Uploads file. Default implementation opens it and passes stream to {@link #post(String, String, InputStream)},
+     * which must close stream when request completes.
+     */
+    default Future<ClientResponse> post(String url, String filename, File file) throws TransportClientException {
+        try {
+            return post(url, filename, new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            throw new TransportClientException("Failed to open file " + file, e);
+        }
+    }
+
     Future<ClientResponse> put(String url, @Nullable byte[] requestBody) throws TransportClientException;
 
     Future<ClientResponse> delete(String url) throws TransportClientException;
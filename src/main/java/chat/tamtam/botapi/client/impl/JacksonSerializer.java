@@ -21,26 +21,41 @@
 package chat.tamtam.botapi.client.impl;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jetbrains.annotations.Nullable;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import chat.tamtam.botapi.client.TamTamSerializer;
 import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.Update;
 
 /**
  * @author alexandrchuprin
  */
 public class JacksonSerializer implements TamTamSerializer {
+    private static final String UPDATES_FIELD = "updates";
+    private static final String MARKER_FIELD = "marker";
+    private static final String UPDATE_TYPE_FIELD = "update_type";
+
     private final ObjectMapper mapper;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
 
     public JacksonSerializer() {
         this(new ObjectMapper());
+        this.mapper.registerModule(new TamTamModelModule());
         this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         this.mapper.disable(DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS);
     }
@@ -71,11 +86,198 @@ public class JacksonSerializer implements TamTamSerializer {
         }
 
         try {
-            ObjectReader reader = mapper.reader();
-            JsonNode json = reader.readTree(data);
-            return reader.treeToValue(json, responseType);
+            return getReader(responseType).readValue(data);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> responseType) throws SerializationException {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        try {
+            return getReader(responseType).readValue(data);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <T> T deserialize(InputStream data, Class<T> responseType) throws SerializationException {
+        if (data == null) {
+            return null;
+        }
+
+        try (JsonParser parser = mapper.getFactory().createParser(data)) {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+
+            return getReader(responseType).readValue(parser);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Long deserializeUpdates(byte[] data, Update.Visitor visitor, @Nullable Set<String> types)
+            throws SerializationException {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        try (JsonParser parser = mapper.getFactory().createParser(data)) {
+            return deserializeUpdates(parser, visitor, types);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Long deserializeUpdates(InputStream data, Update.Visitor visitor, @Nullable Set<String> types)
+            throws SerializationException {
+        if (data == null) {
+            return null;
+        }
+
+        try (JsonParser parser = mapper.getFactory().createParser(data)) {
+            return deserializeUpdates(parser, visitor, types);
         } catch (IOException e) {
             throw new SerializationException(e);
         }
     }
+
+    @Nullable
+    @Override
+    public Update deserializeUpdate(InputStream data, @Nullable Set<String> types) throws SerializationException {
+        if (data == null) {
+            return null;
+        }
+
+        try (JsonParser parser = mapper.getFactory().createParser(data)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+
+            expect(parser, JsonToken.START_OBJECT);
+            return readUpdate(parser, getReader(Update.class), types);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Nullable
+    private Long deserializeUpdates(JsonParser parser, Update.Visitor visitor, @Nullable Set<String> types)
+            throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+
+        expect(parser, JsonToken.START_OBJECT);
+        Long marker = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            token = parser.nextToken();
+            if (UPDATES_FIELD.equals(fieldName) && token != JsonToken.VALUE_NULL) {
+                expect(parser, JsonToken.START_ARRAY);
+                readUpdates(parser, visitor, types);
+            } else if (MARKER_FIELD.equals(fieldName) && token != JsonToken.VALUE_NULL) {
+                marker = parser.getValueAsLong();
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return marker;
+    }
+
+    private void readUpdates(JsonParser parser, Update.Visitor visitor, @Nullable Set<String> types)
+            throws IOException {
+        ObjectReader reader = getReader(Update.class);
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            Update update = readUpdate(parser, reader, types);
+            if (update != null) {
+                update.visit(visitor);
+            }
+        }
+    }
+
+    /**
+     * Reads update starting at current {@code START_OBJECT} token. If {@code types} is given, looks for
+     * {@code update_type} field first: unwanted updates are skipped without binding, wanted ones are bound from
+     * fields consumed so far followed by the rest of object.
+     */
+    @Nullable
+    private static Update readUpdate(JsonParser parser, ObjectReader reader, @Nullable Set<String> types)
+            throws IOException {
+        if (types == null) {
+            return reader.readValue(parser);
+        }
+
+        TokenBuffer consumed = new TokenBuffer(parser);
+        consumed.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (!UPDATE_TYPE_FIELD.equals(parser.getCurrentName())) {
+                consumed.copyCurrentStructure(parser);
+                continue;
+            }
+
+            parser.nextToken();
+            String type = parser.getValueAsString();
+            if (!types.contains(type)) {
+                skipRemainingFields(parser);
+                return null;
+            }
+
+            consumed.writeStringField(UPDATE_TYPE_FIELD, type);
+            JsonParser replay = JsonParserSequence.createFlattened(false, consumed.asParser(parser), parser);
+            replay.nextToken();
+            return reader.readValue(replay);
+        }
+
+        // there is no type at all
+        return null;
+    }
+
+    private static void skipRemainingFields(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws JsonParseException {
+        if (parser.currentToken() != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but was " + parser.currentToken());
+        }
+    }
+
+    /**
+     * Readers are immutable and thread-safe, so we create them once per type. Note that changes made to mapper
+     * configuration after first deserialization of some type will not affect cached readers.
+     */
+    private ObjectReader getReader(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if (reader != null) {
+            return reader;
+        }
+
+        reader = mapper.readerFor(type);
+        ObjectReader existing = readers.putIfAbsent(type, reader);
+        return existing == null ? reader : existing;
+    }
 }
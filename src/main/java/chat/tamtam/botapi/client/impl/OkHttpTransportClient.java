@@ -20,7 +20,8 @@
 
 package chat.tamtam.botapi.client.impl;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
@@ -47,6 +48,8 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
 
 /**
  * @author alexandrchuprin
@@ -57,7 +60,6 @@ public class OkHttpTransportClient implements TamTamTransportClient {
     private static final String USER_AGENT = "TamTam Java Client/0.0.1";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
     private static final MediaType BINARY_CONTENT_TYPE = MediaType.parse("application/octet-stream");
-    private static final int FOUR_KB = 4 * 1024;
 
     private final OkHttpClient httpClient;
 
@@ -91,31 +93,32 @@ public class OkHttpTransportClient implements TamTamTransportClient {
             TransportClientException {
         Objects.requireNonNull(filename, "Filename must not be null");
         Objects.requireNonNull(inputStream, "inputStream must not be null");
+        MultipartBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("v1", filename, new InputStreamRequestBody(inputStream))
+                .build();
+
+        Request request;
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[FOUR_KB];
-            int n;
-            while ((n = inputStream.read(buffer, 0, buffer.length)) != -1) {
-                out.write(buffer, 0, n);
-            }
+            request = new Request.Builder().url(url).post(body).build();
+        } catch (RuntimeException e) {
+            closeQuietly(inputStream, filename);
+            throw e;
+        }
 
-            byte[] data = out.toByteArray();
-            MultipartBody body = new MultipartBody.Builder()
-                    .setType(MultipartBody.FORM)
-                    .addFormDataPart("v1", filename, RequestBody.create(BINARY_CONTENT_TYPE, data))
-                    .build();
+        return newCall(request, () -> closeQuietly(inputStream, filename));
+    }
 
-            Request request = new Request.Builder().url(url).post(body).build();
-            return newCall(request);
-        } catch (IOException e) {
-            throw new TransportClientException("Failed to execute POST request", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                LOG.error("Failed to close resource {}", filename, e);
-            }
-        }
+    @Override
+    public Future<ClientResponse> post(String url, String filename, File file) throws TransportClientException {
+        Objects.requireNonNull(filename, "Filename must not be null");
+        Objects.requireNonNull(file, "file must not be null");
+        MultipartBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("v1", filename, RequestBody.create(BINARY_CONTENT_TYPE, file))
+                .build();
+
+        return newCall(new Request.Builder().url(url).post(body).build());
     }
 
     @Override
@@ -150,9 +153,22 @@ public class OkHttpTransportClient implements TamTamTransportClient {
         return new ClientResponse(statusCode, body, headers);
     }
 
+    private static void closeQuietly(InputStream inputStream, String filename) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close resource {}", filename, e);
+        }
+    }
+
     private Future<ClientResponse> newCall(Request request) {
-        CallbackFuture future = new CallbackFuture();
-        httpClient.newCall(request).enqueue(future);
+        return newCall(request, null);
+    }
+
+    private Future<ClientResponse> newCall(Request request, @Nullable Closeable resource) {
+        Call call = httpClient.newCall(request);
+        CallbackFuture future = new CallbackFuture(call, resource);
+        call.enqueue(future);
         return future;
     }
 
@@ -180,17 +196,89 @@ public class OkHttpTransportClient implements TamTamTransportClient {
         }
     }
 
+    /**
+     * Streams content of input stream directly to socket in 8 KB segments, so memory used by upload does not depend
+     * on file size. Stream can be read only once, so request fails if OkHttp tries to send body again (retry after
+     * connection failure or {@code 408} response). Stream is not closed here: call closes it when it completes.
+     */
+    private static class InputStreamRequestBody extends RequestBody {
+        private final InputStream inputStream;
+        private boolean consumed;
+
+        private InputStreamRequestBody(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return BINARY_CONTENT_TYPE;
+        }
+
+        @Override
+        public long contentLength() {
+            // unknown, request will be sent using chunked encoding
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (consumed) {
+                throw new IOException("Upload stream has already been sent and cannot be sent again");
+            }
+
+            consumed = true;
+            sink.writeAll(Okio.source(inputStream));
+        }
+    }
+
     private static class CallbackFuture extends CompletableFuture<ClientResponse> implements Callback {
+        private final Call call;
+        @Nullable
+        private final Closeable resource;
+
+        private CallbackFuture(Call call, @Nullable Closeable resource) {
+            this.call = call;
+            this.resource = resource;
+        }
+
+        /**
+         * Cancels HTTP call even if future is already completed exceptionally, so connection is released as soon as
+         * nobody waits for response.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            call.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
         public void onResponse(Call call, Response response) {
             try {
                 super.complete(toClientResponse(response));
             } catch (IOException e) {
-                onFailure(call, e);
+                super.completeExceptionally(new TransportClientException(e));
+            } finally {
+                release();
             }
         }
 
         public void onFailure(Call call, IOException e) {
-            super.completeExceptionally(new TransportClientException(e));
+            try {
+                super.completeExceptionally(new TransportClientException(e));
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (resource == null) {
+                return;
+            }
+
+            try {
+                resource.close();
+            } catch (IOException e) {
+                LOG.error("Failed to release resource", e);
+            }
         }
     }
 }
@@ -0,0 +1,140 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Deserializer for polymorphic model hierarchies like {@link chat.tamtam.botapi.model.Update} where subtype is
+ * defined by existing property ({@code update_type}, {@code type}).
+ * <p>
+ * If discriminator is the first property of object, subtype deserializer continues reading from the same parser,
+ * so nothing is buffered. Otherwise only properties preceding discriminator are buffered.
+ * Unknown types are bound by deserializer of base type.
+ */
+class SubtypeDeserializer extends StdDeserializer<Object> implements ResolvableDeserializer {
+    private final String typeProperty;
+    private final Map<String, JavaType> subtypes;
+    private final JsonDeserializer<Object> defaultDeserializer;
+    private final ConcurrentMap<String, JsonDeserializer<Object>> deserializers = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    SubtypeDeserializer(JavaType baseType, String typeProperty, Map<String, JavaType> subtypes,
+                        JsonDeserializer<?> defaultDeserializer) {
+        super(baseType);
+        this.typeProperty = typeProperty;
+        this.subtypes = new HashMap<>(subtypes);
+        this.defaultDeserializer = (JsonDeserializer<Object>) defaultDeserializer;
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        if (defaultDeserializer instanceof ResolvableDeserializer) {
+            ((ResolvableDeserializer) defaultDeserializer).resolve(ctxt);
+        }
+    }
+
+    @Override
+    public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        }
+
+        if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            return ctxt.handleUnexpectedToken(handledType(), p);
+        }
+
+        if (token == JsonToken.FIELD_NAME && typeProperty.equals(p.getCurrentName())) {
+            p.nextToken();
+            JsonDeserializer<Object> deserializer = findDeserializer(ctxt, p.getValueAsString());
+            // subtype deserializer accepts parser positioned inside of object
+            p.nextToken();
+            return deserializer.deserialize(p, ctxt);
+        }
+
+        TokenBuffer buffer = new TokenBuffer(p, ctxt);
+        buffer.writeStartObject();
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            if (!typeProperty.equals(p.getCurrentName())) {
+                buffer.copyCurrentStructure(p);
+                continue;
+            }
+
+            p.nextToken();
+            JsonDeserializer<Object> deserializer = findDeserializer(ctxt, p.getValueAsString());
+            JsonParser sequence = JsonParserSequence.createFlattened(false, buffer.asParser(p), p);
+            sequence.nextToken();
+            return deserializer.deserialize(sequence, ctxt);
+        }
+
+        // object has no type at all
+        buffer.writeEndObject();
+        JsonParser buffered = buffer.asParser(p);
+        buffered.nextToken();
+        return defaultDeserializer.deserialize(buffered, ctxt);
+    }
+
+    @Override
+    public Object deserializeWithType(JsonParser p, DeserializationContext ctxt, TypeDeserializer typeDeserializer)
+            throws IOException {
+        // we resolve subtypes by ourselves
+        return deserialize(p, ctxt);
+    }
+
+    private JsonDeserializer<Object> findDeserializer(DeserializationContext ctxt, @Nullable String typeName)
+            throws JsonMappingException {
+        if (typeName == null) {
+            return defaultDeserializer;
+        }
+
+        JsonDeserializer<Object> deserializer = deserializers.get(typeName);
+        if (deserializer != null) {
+            return deserializer;
+        }
+
+        JavaType subtype = subtypes.get(typeName);
+        if (subtype == null) {
+            return defaultDeserializer;
+        }
+
+        deserializer = ctxt.findContextualValueDeserializer(subtype, null);
+        deserializers.putIfAbsent(typeName, deserializer);
+        return deserializer;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.client.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Replaces default type resolution for model hierarchies annotated with
+ * {@code @JsonTypeInfo(include = EXISTING_PROPERTY)} by {@link SubtypeDeserializer} that avoids buffering of tokens
+ * when type property goes first. Registered by default in {@link JacksonSerializer}, register it manually if you
+ * pass your own {@link com.fasterxml.jackson.databind.ObjectMapper}.
+ */
+public class TamTamModelModule extends SimpleModule {
+    public TamTamModelModule() {
+        super("TamTamModelModule");
+        setDeserializerModifier(new SubtypeDeserializerModifier());
+    }
+
+    private static class SubtypeDeserializerModifier extends BeanDeserializerModifier {
+        @Override
+        public JsonDeserializer<?> modifyDeserializer(DeserializationConfig config, BeanDescription beanDesc,
+                                                      JsonDeserializer<?> deserializer) {
+            Class<?> beanClass = beanDesc.getBeanClass();
+            // annotations are checked on class itself so subtypes keep their default deserializers
+            JsonTypeInfo typeInfo = beanClass.getAnnotation(JsonTypeInfo.class);
+            JsonSubTypes subTypes = beanClass.getAnnotation(JsonSubTypes.class);
+            if (typeInfo == null || subTypes == null || typeInfo.include() != JsonTypeInfo.As.EXISTING_PROPERTY
+                    || typeInfo.use() != JsonTypeInfo.Id.NAME) {
+                return deserializer;
+            }
+
+            Map<String, JavaType> subtypes = new HashMap<>();
+            for (JsonSubTypes.Type type : subTypes.value()) {
+                subtypes.put(type.name(), config.constructType(type.value()));
+            }
+
+            return new SubtypeDeserializer(beanDesc.getType(), typeInfo.property(), subtypes, deserializer);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package chat.tamtam.botapi.exceptions;
+
+public class RateLimitExceededException extends ClientException {
+    public RateLimitExceededException(String message) {
+        super(429, message);
+    }
+}
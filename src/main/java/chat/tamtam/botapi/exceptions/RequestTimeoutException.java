@@ -0,0 +1,7 @@
+package chat.tamtam.botapi.exceptions;
+
+public class RequestTimeoutException extends ClientException {
+    public RequestTimeoutException(String message) {
+        super(408, message);
+    }
+}
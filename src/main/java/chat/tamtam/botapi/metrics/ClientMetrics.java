@@ -0,0 +1,82 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps measurements of every endpoint in memory. Exporter to metrics backend can read them periodically with
+ * {@link #forEach(BiConsumer)}:
+ * <pre>{@code
+ * ClientMetrics metrics = new ClientMetrics();
+ * client.setMetrics(metrics);
+ * metrics.forEach((endpoint, m) -> gauge(endpoint + ".in_flight", m.getInFlight()));
+ * }</pre>
+ */
+public class ClientMetrics implements QueryMetrics {
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void onRequest(String endpoint) {
+        endpoint(endpoint).onRequest();
+    }
+
+    @Override
+    public void onResponse(String endpoint, long latencyNanos, int requestBytes, int statusCode,
+                           int responseBytes) {
+        endpoint(endpoint).onResponse(latencyNanos, requestBytes, responseBytes);
+    }
+
+    @Override
+    public void onError(String endpoint, Throwable error) {
+        endpoint(endpoint).onError(error.getClass());
+    }
+
+    /**
+     * @return measurements of endpoint or {@code null} if no request was sent to it
+     */
+    @Nullable
+    public EndpointMetrics get(String endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    public Set<String> getEndpoints() {
+        return Collections.unmodifiableSet(endpoints.keySet());
+    }
+
+    public void forEach(BiConsumer<String, EndpointMetrics> consumer) {
+        endpoints.forEach(consumer);
+    }
+
+    private EndpointMetrics endpoint(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null) {
+            metrics = endpoints.computeIfAbsent(endpoint, e -> new EndpointMetrics());
+        }
+
+        return metrics;
+    }
+}
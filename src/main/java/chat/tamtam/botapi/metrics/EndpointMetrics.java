@@ -0,0 +1,118 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of one endpoint collected by {@link ClientMetrics}.
+ */
+public class EndpointMetrics {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final Histogram latency = new Histogram();
+    private final ConcurrentMap<Class<? extends Throwable>, LongAdder> errors = new ConcurrentHashMap<>();
+
+    EndpointMetrics() {
+    }
+
+    /**
+     * @return number of requests passed to transport
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return number of requests waiting for response
+     */
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.sum();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    /**
+     * @return histogram of request latency in microseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return total number of failed attempts
+     */
+    public long getErrorCount() {
+        long count = 0;
+        for (LongAdder adder : errors.values()) {
+            count += adder.sum();
+        }
+
+        return count;
+    }
+
+    public long getErrorCount(Class<? extends Throwable> type) {
+        LongAdder count = errors.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return snapshot of number of failed attempts by exception class
+     */
+    public Map<Class<? extends Throwable>, Long> getErrorCounts() {
+        Map<Class<? extends Throwable>, Long> snapshot = new HashMap<>();
+        errors.forEach((type, count) -> snapshot.put(type, count.sum()));
+        return snapshot;
+    }
+
+    void onRequest() {
+        requests.increment();
+        inFlight.increment();
+    }
+
+    void onResponse(long latencyNanos, int requestBytes, int responseBytes) {
+        inFlight.decrement();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        this.requestBytes.add(requestBytes);
+        this.responseBytes.add(responseBytes);
+    }
+
+    void onError(Class<? extends Throwable> type) {
+        LongAdder count = errors.get(type);
+        if (count == null) {
+            count = errors.computeIfAbsent(type, t -> new LongAdder());
+        }
+
+        count.increment();
+    }
+}
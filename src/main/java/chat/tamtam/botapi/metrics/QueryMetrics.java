@@ -0,0 +1,58 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.metrics;
+
+/**
+ * Receives measurements of every request sent by {@link chat.tamtam.botapi.queries.TamTamQuery}. Implement it to
+ * pass measurements to your metrics backend or use {@link ClientMetrics} to keep them in memory.
+ * <p>
+ * Endpoint is HTTP method and path with ids replaced by placeholder, like {@code GET /chats/{id}/members}, so number
+ * of endpoints is bounded. Methods are called on caller, transport and callback threads, so implementations must be
+ * thread-safe and must not block. When metrics are not set to {@link chat.tamtam.botapi.client.TamTamClient}, nothing
+ * is measured and nothing is allocated.
+ */
+public interface QueryMetrics {
+    /**
+     * Status code passed to {@link #onResponse} when no response was received.
+     */
+    int NO_RESPONSE = -1;
+
+    /**
+     * Called before request is passed to transport. Every call is followed by {@link #onResponse}.
+     */
+    void onRequest(String endpoint);
+
+    /**
+     * Called when transport completes request.
+     *
+     * @param latencyNanos time from {@link #onRequest} to completion
+     * @param requestBytes size of request body
+     * @param statusCode   HTTP status code or {@link #NO_RESPONSE} if request failed in transport or transport does not
+     *                     notify about completion
+     * @param responseBytes size of response body
+     */
+    void onResponse(String endpoint, long latencyNanos, int requestBytes, int statusCode, int responseBytes);
+
+    /**
+     * Called for every failed attempt: transport failure, timeout or error returned by API and mapped by
+     * {@link chat.tamtam.botapi.exceptions.ExceptionMapper}.
+     */
+    void onError(String endpoint, Throwable error);
+}
@@ -33,4 +33,14 @@ public class AnswerOnCallbackQuery extends TamTamQuery<SimpleQueryResult> {
         this.callbackId.setValue(callbackId);
     }
 
+    public AnswerOnCallbackQuery body(CallbackAnswer callbackAnswer) {
+        setBody(callbackAnswer);
+        return this;
+    }
+
+    public AnswerOnCallbackQuery callbackId(String value) {
+        this.callbackId.setValue(value);
+        return this;
+    }
+
 }
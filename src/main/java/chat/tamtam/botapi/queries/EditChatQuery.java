@@ -20,6 +20,7 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.Chat;
@@ -27,8 +28,16 @@ import chat.tamtam.botapi.model.ChatPatch;
 
 public class EditChatQuery extends TamTamQuery<Chat> { 
 
+    private final Long chatId;
+
     public EditChatQuery(TamTamClient client, ChatPatch chatPatch, Long chatId) {
         super(client, substitute("/chats/{chatId}", chatId), chatPatch, Chat.class, Method.PATCH);
+        this.chatId = chatId;
+    }
+
+    @Override
+    void invalidateCache(ResponseCache cache, Chat result) {
+        cache.invalidate(ResponseCache.Region.CHAT, chatId);
     }
 
 }
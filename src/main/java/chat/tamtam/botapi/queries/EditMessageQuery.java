@@ -33,4 +33,14 @@ public class EditMessageQuery extends TamTamQuery<SimpleQueryResult> {
         this.messageId.setValue(messageId);
     }
 
+    public EditMessageQuery body(NewMessageBody newMessageBody) {
+        setBody(newMessageBody);
+        return this;
+    }
+
+    public EditMessageQuery messageId(String value) {
+        this.messageId.setValue(value);
+        return this;
+    }
+
 }
@@ -20,14 +20,22 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.Chat;
 
 public class GetChatQuery extends TamTamQuery<Chat> { 
+    private final Long chatId;
 
     public GetChatQuery(TamTamClient client, Long chatId) {
         super(client, substitute("/chats/{chatId}", chatId), null, Chat.class, Method.GET);
+        this.chatId = chatId;
+    }
+
+    @Override
+    ResponseCache.Key getCacheKey() {
+        return ResponseCache.Key.of(ResponseCache.Region.CHAT, chatId);
     }
 
 }
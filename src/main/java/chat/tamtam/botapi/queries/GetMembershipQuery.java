@@ -20,14 +20,23 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.ChatMember;
 
 public class GetMembershipQuery extends TamTamQuery<ChatMember> { 
 
+    private final Long chatId;
+
     public GetMembershipQuery(TamTamClient client, Long chatId) {
         super(client, substitute("/chats/{chatId}/members/me", chatId), null, ChatMember.class, Method.GET);
+        this.chatId = chatId;
+    }
+
+    @Override
+    ResponseCache.Key getCacheKey() {
+        return ResponseCache.Key.of(ResponseCache.Region.MEMBERSHIP, chatId);
     }
 
 }
@@ -20,6 +20,7 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.UserWithPhoto;
@@ -30,4 +31,9 @@ public class GetMyInfoQuery extends TamTamQuery<UserWithPhoto> {
         super(client, "/me", null, UserWithPhoto.class, Method.GET);
     }
 
+    @Override
+    ResponseCache.Key getCacheKey() {
+        return ResponseCache.Key.of(ResponseCache.Region.MY_INFO);
+    }
+
 }
@@ -20,6 +20,7 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.GetSubscriptionsResult;
@@ -30,4 +31,9 @@ public class GetSubscriptionsQuery extends TamTamQuery<GetSubscriptionsResult> {
         super(client, "/subscriptions", null, GetSubscriptionsResult.class, Method.GET);
     }
 
+    @Override
+    ResponseCache.Key getCacheKey() {
+        return ResponseCache.Key.of(ResponseCache.Region.SUBSCRIPTIONS);
+    }
+
 }
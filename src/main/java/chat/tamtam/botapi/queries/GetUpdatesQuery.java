@@ -20,10 +20,28 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+
+import chat.tamtam.botapi.exceptions.APIException;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
 import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
 import java.util.Collection;
 
 public class GetUpdatesQuery extends TamTamQuery<UpdateList> { 
@@ -31,9 +49,38 @@ public class GetUpdatesQuery extends TamTamQuery<UpdateList> {
     private final QueryParam<Integer> timeout = new QueryParam<>("timeout", this);
     private final QueryParam<Long> marker = new QueryParam<>("marker", this);
     private final QueryParam<Collection<String>> types = new CollectionQueryParam<>("types", this);
+    private final TamTamClient client;
 
     public GetUpdatesQuery(TamTamClient client) {
         super(client, "/updates", null, UpdateList.class, Method.GET);
+        this.client = client;
+    }
+
+    /**
+     * Executes query and passes every received update to visitor as soon as it is parsed. Unlike {@link #execute()}
+     * it does not build {@link UpdateList} so handling can start before the whole response is parsed.
+     *
+     * @param visitor receives updates in order they appear in response
+     * @return marker to pass into next query to get next page of updates
+     */
+    @Nullable
+    public Long execute(Update.Visitor visitor) throws APIException, ClientException {
+        ClientResponse response = callAndWait();
+        checkResponse(response);
+        ResponseCache cache = client.getResponseCache();
+        Update.Visitor target = cache == null ? visitor : new InvalidatingVisitor(cache, visitor);
+        return client.getSerializer().deserializeUpdates(response.getBody(), target, null);
+    }
+
+    @Override
+    void invalidateCache(ResponseCache cache, UpdateList result) {
+        if (result == null || result.getUpdates() == null) {
+            return;
+        }
+
+        for (Update update : result.getUpdates()) {
+            cache.invalidate(update);
+        }
     }
 
     public GetUpdatesQuery limit(Integer value) {
@@ -52,4 +99,74 @@ public class GetUpdatesQuery extends TamTamQuery<UpdateList> {
         this.types.setValue(value);
         return this;
     }
+
+    private static class InvalidatingVisitor implements Update.Visitor {
+        private final ResponseCache cache;
+        private final Update.Visitor delegate;
+
+        InvalidatingVisitor(ResponseCache cache, Update.Visitor delegate) {
+            this.cache = cache;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            cache.invalidate(model);
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            cache.invalidate(model);
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+            cache.invalidate(model);
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+            cache.invalidate(model);
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            cache.invalidate(model);
+            delegate.visit(model);
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+            delegate.visitDefault(model);
+        }
+    }
 }
@@ -20,14 +20,24 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.SimpleQueryResult;
 
 public class LeaveChatQuery extends TamTamQuery<SimpleQueryResult> { 
 
+    private final Long chatId;
+
     public LeaveChatQuery(TamTamClient client, Long chatId) {
         super(client, substitute("/chats/{chatId}/members/me", chatId), null, SimpleQueryResult.class, Method.DELETE);
+        this.chatId = chatId;
+    }
+
+    @Override
+    void invalidateCache(ResponseCache cache, SimpleQueryResult result) {
+        cache.invalidate(ResponseCache.Region.CHAT, chatId);
+        cache.invalidate(ResponseCache.Region.MEMBERSHIP, chatId);
     }
 
 }
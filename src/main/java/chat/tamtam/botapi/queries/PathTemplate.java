@@ -0,0 +1,81 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.queries;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Path like {@code /chats/{chatId}/members} split into literal parts once per query class.
+ */
+final class PathTemplate {
+    private static final ConcurrentMap<String, PathTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final String[] literals;
+    private final int literalsLength;
+
+    private PathTemplate(String template) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = template.indexOf('{', start)) != -1) {
+            int close = template.indexOf('}', open);
+            if (close == -1) {
+                break;
+            }
+
+            parts.add(template.substring(start, open));
+            start = close + 1;
+        }
+
+        parts.add(template.substring(start));
+        this.literals = parts.toArray(new String[0]);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+
+        this.literalsLength = length;
+    }
+
+    static PathTemplate of(String template) {
+        PathTemplate cached = CACHE.get(template);
+        if (cached != null) {
+            return cached;
+        }
+
+        return CACHE.computeIfAbsent(template, PathTemplate::new);
+    }
+
+    /**
+     * @param substitutions values of placeholders in order of appearance
+     */
+    String expand(Object... substitutions) {
+        StringBuilder sb = new StringBuilder(literalsLength + 16 * substitutions.length);
+        sb.append(literals[0]);
+        for (int i = 1; i < literals.length; i++) {
+            sb.append(substitutions[i - 1]).append(literals[i]);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.queries;
+
+/**
+ * Encodes query parameter values exactly like {@link java.net.URLEncoder} with UTF-8 but without intermediate
+ * strings and byte arrays. Values not requiring encoding, like ids, are returned as is.
+ */
+final class PercentEncoder {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            SAFE[c] = true;
+        }
+
+        for (char c = 'A'; c <= 'Z'; c++) {
+            SAFE[c] = true;
+        }
+
+        for (char c = '0'; c <= '9'; c++) {
+            SAFE[c] = true;
+        }
+
+        SAFE['.'] = true;
+        SAFE['-'] = true;
+        SAFE['*'] = true;
+        SAFE['_'] = true;
+    }
+
+    private PercentEncoder() {
+    }
+
+    static String encode(String value) {
+        int safePrefix = safePrefixLength(value);
+        if (safePrefix == value.length()) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        sb.append(value, 0, safePrefix);
+        appendEncoded(sb, value, safePrefix);
+        return sb.toString();
+    }
+
+    static void append(StringBuilder sb, String value) {
+        int safePrefix = safePrefixLength(value);
+        sb.append(value, 0, safePrefix);
+        if (safePrefix < value.length()) {
+            appendEncoded(sb, value, safePrefix);
+        }
+    }
+
+    private static int safePrefixLength(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (!isSafe(value.charAt(i))) {
+                return i;
+            }
+        }
+
+        return length;
+    }
+
+    private static void appendEncoded(StringBuilder sb, String value, int from) {
+        int length = value.length();
+        for (int i = from; i < length; i++) {
+            char c = value.charAt(i);
+            if (isSafe(c)) {
+                sb.append(c);
+            } else if (c == ' ') {
+                sb.append('+');
+            } else if (c < 0x80) {
+                appendByte(sb, c);
+            } else if (c < 0x800) {
+                appendByte(sb, 0xC0 | (c >> 6));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(sb, 0xF0 | (codePoint >> 18));
+                appendByte(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate is replaced by '?' as String.getBytes does
+                appendByte(sb, '?');
+            } else {
+                appendByte(sb, 0xE0 | (c >> 12));
+                appendByte(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isSafe(char c) {
+        return c < 128 && SAFE[c];
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
@@ -33,6 +33,11 @@ public class SendMessageQuery extends TamTamQuery<SendMessageResult> {
         super(client, "/messages", newMessageBody, SendMessageResult.class, Method.POST);
     }
 
+    public SendMessageQuery body(NewMessageBody newMessageBody) {
+        setBody(newMessageBody);
+        return this;
+    }
+
     public SendMessageQuery userId(Long value) {
         this.userId.setValue(value);
         return this;
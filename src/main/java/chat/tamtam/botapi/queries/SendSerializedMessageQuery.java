@@ -0,0 +1,65 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.queries;
+
+import java.util.Objects;
+
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.NewMessageBody;
+
+/**
+ * Sends message which body is already serialized, so the same body can be sent to many recipients without
+ * serializing it again.
+ */
+public class SendSerializedMessageQuery extends SendMessageQuery {
+    private byte[] body;
+
+    /**
+     * @param body serialized {@link NewMessageBody}. Array is not copied and must not be changed while query is used.
+     */
+    public SendSerializedMessageQuery(TamTamClient client, byte[] body) {
+        super(client, null);
+        this.body = Objects.requireNonNull(body, "body");
+    }
+
+    /**
+     * @param body serialized {@link NewMessageBody} to send on next execution
+     */
+    public SendSerializedMessageQuery body(byte[] body) {
+        this.body = Objects.requireNonNull(body, "body");
+        return this;
+    }
+
+    /**
+     * Replaces serialized body with the given one, it will be serialized when query is executed.
+     */
+    @Override
+    public SendSerializedMessageQuery body(NewMessageBody newMessageBody) {
+        super.body(newMessageBody);
+        this.body = null;
+        return this;
+    }
+
+    @Override
+    protected byte[] serializeBody() throws SerializationException {
+        return body != null ? body : super.serializeBody();
+    }
+}
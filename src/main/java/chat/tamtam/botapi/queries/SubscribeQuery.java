@@ -20,6 +20,7 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.SimpleQueryResult;
@@ -31,4 +32,9 @@ public class SubscribeQuery extends TamTamQuery<SimpleQueryResult> {
         super(client, "/subscriptions", subscriptionRequestBody, SimpleQueryResult.class, Method.POST);
     }
 
+    @Override
+    void invalidateCache(ResponseCache cache, SimpleQueryResult result) {
+        cache.invalidate(ResponseCache.Key.of(ResponseCache.Region.SUBSCRIPTIONS));
+    }
+
 }
@@ -21,41 +21,73 @@
 package chat.tamtam.botapi.queries;
 
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import chat.tamtam.botapi.Version;
 import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.RateLimiter;
+import chat.tamtam.botapi.client.RequestCoalescer;
+import chat.tamtam.botapi.client.ResponseCache;
+import chat.tamtam.botapi.client.RetryPolicy;
 import chat.tamtam.botapi.client.TamTamClient;
-import chat.tamtam.botapi.client.TamTamSerializer;
 import chat.tamtam.botapi.client.TamTamTransportClient;
 import chat.tamtam.botapi.exceptions.APIException;
 import chat.tamtam.botapi.exceptions.ClientException;
 import chat.tamtam.botapi.exceptions.ExceptionMapper;
+import chat.tamtam.botapi.exceptions.RequestTimeoutException;
 import chat.tamtam.botapi.exceptions.RequiredParameterMissingException;
 import chat.tamtam.botapi.exceptions.SerializationException;
 import chat.tamtam.botapi.exceptions.ServiceNotAvailableException;
+import chat.tamtam.botapi.exceptions.TooManyRequestsException;
 import chat.tamtam.botapi.exceptions.TransportClientException;
+import chat.tamtam.botapi.metrics.QueryMetrics;
 import chat.tamtam.botapi.model.Error;
 
 /**
  * @author alexandrchuprin
  */
 public class TamTamQuery<T> {
+    private static final ClassValue<Boolean> CUSTOM_ENCODING = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> c = type; c != TamTamQuery.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("encodeParam", String.class);
+                    return true;
+                } catch (NoSuchMethodException e) {
+                    // look in superclass
+                }
+            }
+
+            return false;
+        }
+    };
+
     private final TamTamClient tamTamClient;
     private final String url;
     private final Class<T> responseType;
-    private final Object body;
+    private Object body;
     private final Method method;
     private List<QueryParam<?>> params;
+    private long deadlineNanos;
+    private RetryPolicy retryPolicy;
+    private RateLimiter rateLimiter;
+    private boolean retriesDisabled;
+    private boolean rateLimitDisabled;
+    private String endpointName;
 
     public TamTamQuery(TamTamClient tamTamClient, String url, Class<T> responseType) {
         this(tamTamClient, url, null, responseType, Method.POST);
@@ -74,20 +106,140 @@ public class TamTamQuery<T> {
     }
 
     public T execute() throws APIException, ClientException {
+        if (getRetryPolicy() != null) {
+            // retries are scheduled on timer, current thread only waits for final result
+            return await(enqueueAsync());
+        }
+
+        ClientResponse cached = getCachedResponse();
+        if (cached != null) {
+            return deserialize(cached, true);
+        }
+
+        return deserialize(callAndWait(), false);
+    }
+
+    public Future<T> enqueue() throws ClientException {
+        if (getRetryPolicy() != null) {
+            return enqueueAsync();
+        }
+
+        ClientResponse cached = getCachedResponse();
+        if (cached != null) {
+            return new FutureResult(CompletableFuture.completedFuture(cached), true);
+        }
+
+        return new FutureResult(start(), false);
+    }
+
+    /**
+     * Limits time to wait for response. When deadline expires, HTTP call is cancelled and query fails with
+     * {@link RequestTimeoutException}.
+     */
+    public TamTamQuery<T> deadline(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+
+        this.deadlineNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Overrides {@link TamTamClient#getRetryPolicy() client's retry policy} for this query.
+     *
+     * @param retryPolicy policy to use or {@code null} to use client's one
+     * @see #withoutRetries()
+     */
+    public TamTamQuery<T> retryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        this.retriesDisabled = false;
+        return this;
+    }
+
+    /**
+     * Sends query only once even if client has retry policy.
+     */
+    public TamTamQuery<T> withoutRetries() {
+        this.retryPolicy = null;
+        this.retriesDisabled = true;
+        return this;
+    }
+
+    /**
+     * Overrides {@link TamTamClient#getRateLimiter() client's rate limiter} for this query.
+     *
+     * @param rateLimiter limiter to use or {@code null} to use client's one
+     * @see #withoutRateLimit()
+     */
+    public TamTamQuery<T> rateLimiter(@Nullable RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        this.rateLimitDisabled = false;
+        return this;
+    }
+
+    /**
+     * Sends query without waiting for rate limiter even if client has one.
+     */
+    public TamTamQuery<T> withoutRateLimit() {
+        this.rateLimiter = null;
+        this.rateLimitDisabled = true;
+        return this;
+    }
+
+    /**
+     * Sends request asynchronously. Response is deserialized on {@link TamTamClient#getCallbackExecutor()}.
+     *
+     * @return future completed with result or failed with {@link ClientException} or {@link APIException}
+     */
+    public CompletableFuture<T> enqueueAsync() {
+        return enqueueAsync(tamTamClient.getCallbackExecutor());
+    }
+
+    /**
+     * Sends request asynchronously. Response is deserialized on {@code executor} so no thread waits for it.
+     * If request is throttled by {@link RateLimiter}, it is sent later without blocking caller.
+     * Cancelling returned future cancels request.
+     *
+     * @return future completed with result or failed with {@link ClientException} or {@link APIException}
+     */
+    public CompletableFuture<T> enqueueAsync(Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+        CompletableFuture<T> result = new CompletableFuture<>();
+        RetryPolicy retryPolicy = getRetryPolicy();
+        if (retryPolicy != null) {
+            retryPolicy.onRequest();
+        }
+
+        Request request;
         try {
-            ClientResponse response = call().get();
-            return deserialize(response);
+            request = prepare();
+        } catch (ClientException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        attempt(result, executor, 0, request);
+        return result;
+    }
+
+    ClientResponse callAndWait() throws ClientException {
+        try {
+            return start().get();
         } catch (InterruptedException e) {
             throw new ClientException("Current request was interrupted", e);
+        } catch (CancellationException e) {
+            // only deadline can cancel request we wait for
+            throw timeoutException();
         } catch (ExecutionException e) {
+            if (e.getCause() instanceof RequestTimeoutException) {
+                throw (RequestTimeoutException) e.getCause();
+            }
+
             throw new ClientException("Request " + url + " failed", e.getCause());
         }
     }
 
-    public Future<T> enqueue() throws ClientException {
-        return new FutureResult(call());
-    }
-
     void addParam(@NotNull QueryParam param) {
         if (params == null) {
             params = new ArrayList<>();
@@ -96,15 +248,214 @@ public class TamTamQuery<T> {
         params.add(param);
     }
 
-    protected Future<ClientResponse> call() throws ClientException {
-        String url = buildURL();
-        byte[] requestBody = tamTamClient.getSerializer().serialize(body);
+    private void attempt(CompletableFuture<T> result, Executor executor, int retry, Request request) {
+        ClientResponse cached = getCachedResponse();
+        if (cached != null) {
+            handleAsync(result, executor, retry, request, CompletableFuture.completedFuture(cached), true);
+            return;
+        }
+
+        long delay;
+        try {
+            delay = acquirePermit(request);
+        } catch (ClientException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        if (delay == 0) {
+            sendAsync(result, executor, retry, request);
+        } else {
+            QueryTimer.schedule(() -> executor.execute(() -> sendAsync(result, executor, retry, request)), delay,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sendAsync(CompletableFuture<T> result, Executor executor, int retry, Request request) {
+        if (result.isDone()) {
+            // cancelled while waiting for rate limiter or retry
+            return;
+        }
+
+        Future<ClientResponse> call;
+        try {
+            call = send(request);
+        } catch (ClientException e) {
+            onFailure(result, executor, retry, request, e);
+            return;
+        }
+
+        handleAsync(result, executor, retry, request, call, false);
+    }
+
+    private void handleAsync(CompletableFuture<T> result, Executor executor, int retry, Request request,
+                             Future<ClientResponse> call, boolean fromCache) {
+        toCompletableFuture(call, executor).whenCompleteAsync((response, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                onFailure(result, executor, retry, request, cause instanceof CancellationException
+                        || cause instanceof RequestTimeoutException
+                        ? cause
+                        : new ClientException("Request " + url + " failed", cause));
+                return;
+            }
+
+            try {
+                result.complete(deserialize(response, fromCache));
+            } catch (ClientException | APIException | RuntimeException ex) {
+                onFailure(result, executor, retry, request, ex);
+            }
+        }, executor);
+
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+    }
+
+    private void onFailure(CompletableFuture<T> result, Executor executor, int retry, Request request,
+                           Throwable failure) {
+        RetryPolicy retryPolicy = getRetryPolicy();
+        long backoff = retryPolicy == null || result.isDone() || !isReplayable()
+                ? -1
+                : retryPolicy.backoff(getEndpointName(), method.isIdempotent(), failure, retry);
+
+        if (backoff < 0) {
+            result.completeExceptionally(failure);
+            return;
+        }
+
+        QueryTimer.schedule(() -> executor.execute(() -> attempt(result, executor, retry + 1, request)), backoff,
+                TimeUnit.NANOSECONDS);
+    }
+
+    private T await(CompletableFuture<T> future) throws ClientException, APIException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new ClientException("Current request was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof APIException) {
+                throw (APIException) cause;
+            }
+
+            if (cause instanceof ClientException) {
+                throw (ClientException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new ClientException(cause);
+        }
+    }
+
+    @Nullable
+    private RetryPolicy getRetryPolicy() {
+        if (retriesDisabled) {
+            return null;
+        }
+
+        return retryPolicy != null ? retryPolicy : tamTamClient.getRetryPolicy();
+    }
+
+    @Nullable
+    private RateLimiter getRateLimiter() {
+        if (rateLimitDisabled) {
+            return null;
+        }
+
+        return rateLimiter != null ? rateLimiter : tamTamClient.getRateLimiter();
+    }
+
+    /**
+     * @return {@code false} if request cannot be sent again, e.g. its body is read from stream, so it is never retried
+     */
+    protected boolean isReplayable() {
+        return true;
+    }
+
+    /**
+     * @return HTTP method and path of query with numeric ids replaced by placeholder, like {@code GET /chats/{id}}
+     */
+    String getEndpointName() {
+        String name = endpointName;
+        if (name == null) {
+            // url and method never change, so racing threads compute the same name
+            name = endpointName = createEndpointName();
+        }
+
+        return name;
+    }
+
+    private String createEndpointName() {
+        int end = url.indexOf('?');
+        String path = end == -1 ? url : url.substring(0, end);
+        StringBuilder sb = new StringBuilder(method.name()).append(' ');
+        int start = 0;
+        while (start < path.length()) {
+            int slash = path.indexOf('/', start);
+            int segmentEnd = slash == -1 ? path.length() : slash;
+            if (isNumber(path, start, segmentEnd)) {
+                sb.append("{id}");
+            } else {
+                sb.append(path, start, segmentEnd);
+            }
+
+            if (slash == -1) {
+                break;
+            }
+
+            sb.append('/');
+            start = slash + 1;
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean isNumber(String s, int start, int end) {
+        if (start < end && s.charAt(start) == '-') {
+            start++;
+        }
+
+        if (start == end) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds URL and body of query. Called once per execution, so query can be rebound while execution is in
+     * progress and retries send exactly the same request.
+     */
+    protected Request prepare() throws ClientException {
+        return new Request(buildURL(), serializeBody(), getLongParam("chat_id"), getLongParam("user_id"));
+    }
+
+    /**
+     * Passes prepared request to transport.
+     */
+    protected Future<ClientResponse> call(Request request) throws ClientException {
+        String url = request.getUrl();
+        byte[] requestBody = request.getBody();
         TamTamTransportClient transport = tamTamClient.getTransport();
 
         try {
             switch (method) {
                 case GET:
-                    return transport.get(url);
+                    RequestCoalescer coalescer = tamTamClient.getRequestCoalescer();
+                    return coalescer == null ? transport.get(url) : coalescer.get(url, transport);
                 case POST:
                     return transport.post(url, requestBody);
                 case PUT:
@@ -121,67 +472,260 @@ public class TamTamQuery<T> {
         }
     }
 
+    /**
+     * Replaces body of query, so the same instance can be executed again with another body without allocating
+     * its parameters. URL and body are captured when query is executed or enqueued, so query can be rebound as soon
+     * as {@code execute}/{@code enqueue} returns: request in flight and its retries are not affected. Rebinding itself
+     * is not thread-safe, so keep reusable instances confined to one thread (e.g. in {@link ThreadLocal}).
+     */
+    protected void setBody(Object body) {
+        this.body = body;
+    }
+
+    /**
+     * @return request body captured by {@link #prepare()}. Queries having body already serialized return it as is.
+     */
+    protected byte[] serializeBody() throws SerializationException {
+        return tamTamClient.getSerializer().serialize(body);
+    }
+
+    private Future<ClientResponse> start() throws ClientException {
+        Request request = prepare();
+        long delay = acquirePermit(request);
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new ClientException("Current request was interrupted", e);
+            }
+        }
+
+        return send(request);
+    }
+
+    private long acquirePermit(Request request) throws ClientException {
+        RateLimiter rateLimiter = getRateLimiter();
+        if (rateLimiter == null) {
+            return 0;
+        }
+
+        return rateLimiter.acquire(request.getChatId(), request.getUserId());
+    }
+
+    @Nullable
+    private Long getLongParam(String name) {
+        if (params == null) {
+            return null;
+        }
+
+        for (QueryParam<?> param : params) {
+            if (param.getName().equals(name) && param.getValue() instanceof Long) {
+                return (Long) param.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private Future<ClientResponse> send(Request request) throws ClientException {
+        ResponseCache cache = tamTamClient.getResponseCache();
+        ResponseCache.Key cacheKey = cache == null ? null : getCacheKey();
+        long generation = cacheKey == null ? 0 : cache.getGeneration(cacheKey);
+        QueryMetrics metrics = tamTamClient.getMetrics();
+        Future<ClientResponse> future = metrics == null ? call(request) : measureCall(metrics, request);
+        if (cacheKey != null && future instanceof CompletableFuture) {
+            ((CompletableFuture<ClientResponse>) future).thenAccept(r -> cache.put(cacheKey, r, generation));
+        }
+
+        if (deadlineNanos == 0 || future.isDone()) {
+            return future;
+        }
+
+        ScheduledFuture<?> expiration = QueryTimer.schedule(() -> expire(future), deadlineNanos,
+                TimeUnit.NANOSECONDS);
+
+        if (future instanceof CompletableFuture) {
+            ((CompletableFuture<ClientResponse>) future).whenComplete((r, e) -> expiration.cancel(false));
+        }
+
+        return future;
+    }
+
+    private Future<ClientResponse> measureCall(QueryMetrics metrics, Request request) throws ClientException {
+        String endpoint = getEndpointName();
+        byte[] requestBody = request.getBody();
+        int sent = requestBody == null ? 0 : requestBody.length;
+        metrics.onRequest(endpoint);
+        long start = System.nanoTime();
+        Future<ClientResponse> future;
+        try {
+            future = call(request);
+        } catch (ClientException | RuntimeException e) {
+            metrics.onResponse(endpoint, System.nanoTime() - start, sent, QueryMetrics.NO_RESPONSE, 0);
+            metrics.onError(endpoint, e);
+            throw e;
+        }
+
+        if (!(future instanceof CompletableFuture)) {
+            // transport does not notify about completion, so only sending can be measured
+            metrics.onResponse(endpoint, System.nanoTime() - start, sent, QueryMetrics.NO_RESPONSE, 0);
+            return future;
+        }
+
+        ((CompletableFuture<ClientResponse>) future).whenComplete((response, e) -> {
+            long latency = System.nanoTime() - start;
+            if (response == null) {
+                metrics.onResponse(endpoint, latency, sent, QueryMetrics.NO_RESPONSE, 0);
+                metrics.onError(endpoint, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+
+            byte[] body = response.getBody();
+            metrics.onResponse(endpoint, latency, sent, response.getStatusCode(), body == null ? 0 : body.length);
+        });
+
+        return future;
+    }
+
+    private void expire(Future<ClientResponse> future) {
+        if (future.isDone()) {
+            return;
+        }
+
+        if (future instanceof CompletableFuture) {
+            // fail waiters with meaningful exception first, then release connection
+            ((CompletableFuture<ClientResponse>) future).completeExceptionally(timeoutException());
+        }
+
+        future.cancel(true);
+    }
+
+    private RequestTimeoutException timeoutException() {
+        return new RequestTimeoutException("Request " + url + " exceeded deadline of "
+                + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + " ms");
+    }
+
     static String substitute(String pathTemplate, Object... substitutions) {
-        StringBuilder sb = new StringBuilder();
-        int nextSubst = 0;
-        char[] chars = pathTemplate.toCharArray();
-        for (int i = 0; i < chars.length; i++) {
-            char c = chars[i];
-            if (c == '{') {
-                i = pathTemplate.indexOf('}', i);
-                sb.append(substitutions[nextSubst++]);
-                continue;
+        return PathTemplate.of(pathTemplate).expand(substitutions);
+    }
+
+    private static CompletableFuture<ClientResponse> toCompletableFuture(Future<ClientResponse> future,
+                                                                         Executor executor) {
+        if (future instanceof CompletableFuture) {
+            return (CompletableFuture<ClientResponse>) future;
+        }
+
+        // transport does not notify about completion, so executor thread has to wait for it
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
             }
+        }, executor);
+    }
+
+    @Nullable
+    private ClientResponse getCachedResponse() {
+        ResponseCache cache = tamTamClient.getResponseCache();
+        ResponseCache.Key cacheKey = cache == null ? null : getCacheKey();
+        return cacheKey == null ? null : cache.get(cacheKey);
+    }
+
+    /**
+     * @return key to cache response under or {@code null} if response must not be cached
+     */
+    @Nullable
+    ResponseCache.Key getCacheKey() {
+        return null;
+    }
 
-            sb.append(c);
+    /**
+     * Called after every response to invalidate cached data changed by this query.
+     *
+     * @param result deserialized result or {@code null} if query failed
+     */
+    void invalidateCache(ResponseCache cache, @Nullable T result) {
+    }
+
+    private T deserialize(ClientResponse response, boolean fromCache) throws ClientException, APIException {
+        if (fromCache) {
+            // cached response was checked when it arrived: replaying it must neither give feedback to rate limiter
+            // nor invalidate cache
+            return tamTamClient.getSerializer().deserialize(response.getBody(), responseType);
         }
 
-        return sb.toString();
+        T result = null;
+        try {
+            checkResponse(response);
+            result = tamTamClient.getSerializer().deserialize(response.getBody(), responseType);
+            return result;
+        } catch (ClientException | APIException e) {
+            QueryMetrics metrics = tamTamClient.getMetrics();
+            if (metrics != null) {
+                metrics.onError(getEndpointName(), e);
+            }
+
+            throw e;
+        } finally {
+            ResponseCache cache = tamTamClient.getResponseCache();
+            if (cache != null) {
+                invalidateCache(cache, result);
+            }
+        }
     }
 
-    private T deserialize(ClientResponse response) throws ClientException, APIException {
-        String responseBody = response.getBodyAsString();
-        if (response.getStatusCode() == 503) {
-            throw new ServiceNotAvailableException(responseBody);
+    void checkResponse(ClientResponse response) throws ClientException, APIException {
+        int statusCode = response.getStatusCode();
+        RateLimiter rateLimiter = getRateLimiter();
+        if (rateLimiter != null && statusCode / 100 == 2) {
+            rateLimiter.onSuccess();
         }
 
-        TamTamSerializer serializer = tamTamClient.getSerializer();
-        if (response.getStatusCode() / 100 != 2) {
+        if (statusCode == 503) {
+            throw new ServiceNotAvailableException(response.getBodyAsString());
+        }
+
+        if (statusCode / 100 != 2) {
             try {
-                Error error = serializer.deserialize(responseBody, Error.class);
+                Error error = tamTamClient.getSerializer().deserialize(response.getBody(), Error.class);
                 if (error == null) {
-                    throw new APIException(response.getStatusCode());
+                    throw new APIException(statusCode);
                 }
 
-                throw ExceptionMapper.map(error);
+                APIException exception = ExceptionMapper.map(error);
+                if (rateLimiter != null && exception instanceof TooManyRequestsException) {
+                    rateLimiter.onTooManyRequests();
+                }
+
+                throw exception;
             } catch (SerializationException e) {
-                throw new APIException(response.getStatusCode(), responseBody);
+                throw new APIException(statusCode, response.getBodyAsString());
             }
         }
-
-        return serializer.deserialize(responseBody, responseType);
     }
 
     String buildURL() throws ClientException {
-        StringBuilder sb = new StringBuilder(url);
-        if (!url.regionMatches(true, 0, "http", 0, 4)) {
-            sb.insert(0, tamTamClient.getEndpoint());
-        }
-
-        if (url.indexOf('?') == -1) {
-            sb.append('?');
-        } else {
-            sb.append('&');
-        }
+        boolean absolute = url.regionMatches(true, 0, "http", 0, 4);
+        String endpoint = absolute ? "" : tamTamClient.getEndpoint();
+        String commonQuery = tamTamClient.getCommonQuery();
+        int paramsCount = params == null ? 0 : params.size();
+        StringBuilder sb = new StringBuilder(endpoint.length() + url.length() + commonQuery.length()
+                + 1 + 24 * paramsCount);
 
-        sb.append("access_token=").append(tamTamClient.getAccessToken());
-        sb.append('&');
-        sb.append("v=").append(Version.get());
+        sb.append(endpoint).append(url);
+        sb.append(url.indexOf('?') == -1 ? '?' : '&');
+        sb.append(commonQuery);
 
         if (params == null) {
             return sb.toString();
         }
 
+        boolean customEncoding = CUSTOM_ENCODING.get(getClass());
+
         for (QueryParam<?> param : params) {
             String name = param.getName();
             if (param.getValue() == null) {
@@ -195,6 +739,12 @@ public class TamTamQuery<T> {
             sb.append('&');
             sb.append(name);
             sb.append('=');
+            if (!customEncoding) {
+                // encode straight into builder
+                PercentEncoder.append(sb, param.format());
+                continue;
+            }
+
             try {
                 sb.append(encodeParam(param.format()));
             } catch (UnsupportedEncodingException e) {
@@ -205,19 +755,75 @@ public class TamTamQuery<T> {
         return sb.toString();
     }
 
+    /**
+     * Encodes value of query parameter the same way as {@link java.net.URLEncoder} with UTF-8 does. Values not
+     * requiring encoding are returned as is.
+     */
     protected String encodeParam(String paramValue) throws UnsupportedEncodingException {
-        return URLEncoder.encode(paramValue, StandardCharsets.UTF_8.name());
+        return PercentEncoder.encode(paramValue);
     }
 
     protected enum Method {
-        GET, POST, PUT, HEAD, DELETE, PATCH, OPTIONS
+        GET(true), POST(false), PUT(true), HEAD(true), DELETE(true), PATCH(false), OPTIONS(true);
+
+        private final boolean idempotent;
+
+        Method(boolean idempotent) {
+            this.idempotent = idempotent;
+        }
+
+        boolean isIdempotent() {
+            return idempotent;
+        }
+    }
+
+    /**
+     * URL and body of one execution of query.
+     */
+    protected static final class Request {
+        private final String url;
+        private final byte[] body;
+        private final Long chatId;
+        private final Long userId;
+
+        /**
+         * @param chatId recipient chat used by {@link RateLimiter}
+         * @param userId recipient user used by {@link RateLimiter}
+         */
+        public Request(String url, @Nullable byte[] body, @Nullable Long chatId, @Nullable Long userId) {
+            this.url = Objects.requireNonNull(url, "url");
+            this.body = body;
+            this.chatId = chatId;
+            this.userId = userId;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        @Nullable
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Nullable
+        public Long getChatId() {
+            return chatId;
+        }
+
+        @Nullable
+        public Long getUserId() {
+            return userId;
+        }
     }
 
     private class FutureResult implements Future<T> {
         private final Future<ClientResponse> delegate;
+        private final boolean fromCache;
 
-        private FutureResult(Future<ClientResponse> delegate) {
+        private FutureResult(Future<ClientResponse> delegate, boolean fromCache) {
             this.delegate = delegate;
+            this.fromCache = fromCache;
         }
 
         @Override
@@ -238,7 +844,7 @@ public class TamTamQuery<T> {
         @Override
         public T get() throws InterruptedException, ExecutionException {
             try {
-                return deserialize(delegate.get());
+                return deserialize(delegate.get(), fromCache);
             } catch (ClientException | APIException e) {
                 throw new ExecutionException(e);
             } catch (ExecutionException e) {
@@ -250,7 +856,7 @@ public class TamTamQuery<T> {
         public T get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException,
                 TimeoutException {
             try {
-                return deserialize(delegate.get(timeout, unit));
+                return deserialize(delegate.get(timeout, unit), fromCache);
             } catch (ClientException | APIException e) {
                 throw new ExecutionException(e);
             } catch (ExecutionException e) {
@@ -20,6 +20,7 @@
 
 package chat.tamtam.botapi.queries;
 
+import chat.tamtam.botapi.client.ResponseCache;
 import chat.tamtam.botapi.client.TamTamClient;
 
 import chat.tamtam.botapi.model.SimpleQueryResult;
@@ -32,4 +33,9 @@ public class UnsubscribeQuery extends TamTamQuery<SimpleQueryResult> {
         this.url.setValue(url);
     }
 
+    @Override
+    void invalidateCache(ResponseCache cache, SimpleQueryResult result) {
+        cache.invalidate(ResponseCache.Key.of(ResponseCache.Region.SUBSCRIPTIONS));
+    }
+
 }
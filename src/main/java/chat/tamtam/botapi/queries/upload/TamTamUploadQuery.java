@@ -20,9 +20,7 @@
 
 package chat.tamtam.botapi.queries.upload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.concurrent.Future;
@@ -37,34 +35,65 @@ import chat.tamtam.botapi.queries.TamTamQuery;
  * @author alexandrchuprin
  */
 public abstract class TamTamUploadQuery<T> extends TamTamQuery<T> {
-    private static final int TWO_MB = 2 * 1024 * 1024;
-
     private final TamTamClient tamTamClient;
     private final String url;
     private final String fileName;
     private final InputStream input;
+    private final File file;
 
     public TamTamUploadQuery(TamTamClient tamTamClient, Class<T> responseType, String url, File file) throws
             FileNotFoundException {
-        this(tamTamClient, responseType, url, file.getName(),
-                new BufferedInputStream(new FileInputStream(file), TWO_MB));
+        this(tamTamClient, responseType, url, file.getName(), null, checkReadable(file));
     }
 
     public TamTamUploadQuery(TamTamClient tamTamClient, Class<T> responseType, String url, String fileName,
                              InputStream input) {
+        this(tamTamClient, responseType, url, fileName, input, null);
+    }
+
+    private TamTamUploadQuery(TamTamClient tamTamClient, Class<T> responseType, String url, String fileName,
+                              InputStream input, File file) {
         super(tamTamClient, url, responseType);
         this.tamTamClient = tamTamClient;
         this.url = url;
         this.fileName = fileName;
         this.input = input;
+        this.file = file;
     }
 
     @Override
-    protected Future<ClientResponse> call() throws ClientException {
+    protected Request prepare() {
+        // upload URL is complete already and file is streamed by transport
+        return new Request(url, null, null, null);
+    }
+
+    @Override
+    protected Future<ClientResponse> call(Request request) throws ClientException {
         try {
-            return tamTamClient.getTransport().post(url, fileName, input);
+            if (file != null) {
+                // let transport read file by itself instead of copying it through intermediate stream
+                return tamTamClient.getTransport().post(request.getUrl(), fileName, file);
+            }
+
+            return tamTamClient.getTransport().post(request.getUrl(), fileName, input);
         } catch (TransportClientException e) {
             throw new ClientException(e);
         }
     }
+
+    /**
+     * Stream is consumed by the first attempt, so only file uploads can be retried.
+     */
+    @Override
+    protected boolean isReplayable() {
+        return file != null;
+    }
+
+    private static File checkReadable(File file) throws FileNotFoundException {
+        if (!file.isFile() || !file.canRead()) {
+            throw new FileNotFoundException(file.getPath() + " does not exist or is not readable");
+        }
+
+        return file;
+    }
 }
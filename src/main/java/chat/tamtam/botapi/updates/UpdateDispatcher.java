@@ -0,0 +1,562 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.updates;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageCallbackUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageEditedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+
+/**
+ * Passes updates to handler in parallel across chats while keeping order within every chat.
+ * <p>
+ * Every update is routed by its chat id to one of fixed worker partitions. Each partition has single thread and
+ * bounded queue, and every chat may take only {@link #chatCapacity(int) part} of it. Inside partition, chats are
+ * served round-robin one update at a time, so chat with long backlog does not delay other chats of the same
+ * partition. Updates without chat id (like {@link MessageRemovedUpdate}) go to the first partition.
+ * <p>
+ * Dispatcher implements {@link Update.Visitor} itself, so it can be used as handler for {@link UpdatePoller}. By
+ * default visitor waits for free space, so slow handler slows down polling and no update is lost. With
+ * {@link #rejectionHandler(RejectionHandler)} set, visitor never blocks: update that does not fit into queue is passed
+ * to handler instead, e.g. {@link #DROP} to log and drop it, so one slow chat cannot stall polling for all others.
+ */
+public class UpdateDispatcher implements Update.Visitor, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * Logs and drops updates that did not fit into queue. Updates are lost, so use it only if handling every update is
+     * less important than keeping up with the rest of chats.
+     */
+    public static final RejectionHandler DROP = update -> LOG.warn("Update {} is dropped: queue is full", update);
+
+    private final Update.Visitor handler;
+    private final Partition[] partitions;
+    private final CountDownLatch terminated;
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private int chatCapacity;
+    private RejectionHandler rejectionHandler;
+    private volatile boolean started;
+
+    /**
+     * @param handler       visitor to pass updates to
+     * @param partitions    number of worker threads
+     * @param queueCapacity maximum number of updates waiting in every partition
+     */
+    public UpdateDispatcher(Update.Visitor handler, int partitions, int queueCapacity) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be positive");
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i, queueCapacity);
+        }
+
+        this.chatCapacity = queueCapacity;
+        this.terminated = new CountDownLatch(partitions);
+    }
+
+    /**
+     * @param chatCapacity maximum number of updates of single chat waiting in partition, equals to queue capacity by
+     *                     default
+     */
+    public UpdateDispatcher chatCapacity(int chatCapacity) {
+        checkNotStarted();
+        if (chatCapacity < 1) {
+            throw new IllegalArgumentException("chatCapacity must be positive");
+        }
+
+        this.chatCapacity = chatCapacity;
+        return this;
+    }
+
+    /**
+     * @param rejectionHandler receives updates passed to visitor methods that did not fit into queue, or {@code null}
+     *                         to wait for free space (default)
+     */
+    public UpdateDispatcher rejectionHandler(@Nullable RejectionHandler rejectionHandler) {
+        checkNotStarted();
+        this.rejectionHandler = rejectionHandler;
+        return this;
+    }
+
+    /**
+     * @return chat id of update, user id for updates in dialogs without chat id or {@code null} if update does not
+     * belong to any chat
+     */
+    @Nullable
+    public static Long getChatId(Update update) {
+        ChatIdVisitor visitor = new ChatIdVisitor();
+        update.visit(visitor);
+        return visitor.chatId;
+    }
+
+    public synchronized void start() {
+        checkNotStarted();
+        started = true;
+        for (Partition partition : partitions) {
+            Thread thread = new Thread(partition, "tamtam-updates-dispatcher-" + partition.index);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting new updates. Updates already queued are handled before worker threads stop.
+     */
+    public void stop() {
+        for (Partition partition : partitions) {
+            partition.stop();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * Stops dispatcher and waits until queued updates are handled. If current thread is interrupted while waiting,
+     * returns immediately keeping interrupt status, use {@link #awaitTermination(long, TimeUnit)} to wait again.
+     */
+    @Override
+    public void close() {
+        stop();
+        if (!started) {
+            return;
+        }
+
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues update, waiting for free space in partition and in queue of its chat if necessary. Caller is blocked
+     * while chat is behind, so prefer {@link #tryDispatch(Update)} on threads serving many chats.
+     *
+     * @throws IllegalStateException if dispatcher is stopped
+     */
+    public void dispatch(Update update) throws InterruptedException {
+        Long chatId = getChatId(update);
+        partitionOf(chatId).put(chatId, update, true);
+    }
+
+    /**
+     * Queues update if there is free space in partition and in queue of its chat.
+     *
+     * @return {@code false} if partition or chat queue is full
+     * @throws IllegalStateException if dispatcher is stopped
+     */
+    public boolean tryDispatch(Update update) {
+        try {
+            Long chatId = getChatId(update);
+            if (partitionOf(chatId).put(chatId, update, false)) {
+                return true;
+            }
+
+            rejected.increment();
+            return false;
+        } catch (InterruptedException e) {
+            // never happens in non-blocking mode
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return number of updates waiting in partition
+     */
+    public int getQueueDepth(int partition) {
+        return partitions[partition].size();
+    }
+
+    /**
+     * @return number of updates waiting in every partition
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            depths[i] = partitions[i].size();
+        }
+
+        return depths;
+    }
+
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    public long getHandlerErrorCount() {
+        return handlerErrors.sum();
+    }
+
+    /**
+     * @return number of updates that did not fit into queue
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void visit(MessageCreatedUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(MessageCallbackUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(MessageEditedUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(MessageRemovedUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(BotAddedToChatUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(BotRemovedFromChatUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(UserAddedToChatUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(UserRemovedFromChatUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(BotStartedUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visit(ChatTitleChangedUpdate model) {
+        dispatchOrReject(model);
+    }
+
+    @Override
+    public void visitDefault(Update model) {
+        dispatchOrReject(model);
+    }
+
+    private void dispatchOrReject(Update update) {
+        if (rejectionHandler == null) {
+            dispatchInterruptibly(update);
+            return;
+        }
+
+        if (!tryDispatch(update)) {
+            rejectionHandler.rejected(update);
+        }
+    }
+
+    private void dispatchInterruptibly(Update update) {
+        try {
+            dispatch(update);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dispatching update", e);
+        }
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Dispatcher is already started");
+        }
+    }
+
+    private Partition partitionOf(@Nullable Long chatId) {
+        if (chatId == null) {
+            return partitions[0];
+        }
+
+        int hash = Long.hashCode(chatId);
+        hash ^= hash >>> 16;
+        return partitions[Math.floorMod(hash, partitions.length)];
+    }
+
+    private void handle(Update update) {
+        try {
+            update.visit(handler);
+        } catch (RuntimeException e) {
+            handlerErrors.increment();
+            LOG.error("Failed to handle update {}", update, e);
+        } finally {
+            handled.increment();
+        }
+    }
+
+    private class Partition implements Runnable {
+        private final int index;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Map<Long, ChatQueue> chats = new HashMap<>();
+        private final ArrayDeque<ChatQueue> ready = new ArrayDeque<>();
+        private int size;
+        private boolean stopped;
+
+        private Partition(int index, int capacity) {
+            this.index = index;
+            this.capacity = capacity;
+        }
+
+        boolean put(@Nullable Long chatId, Update update, boolean wait) throws InterruptedException {
+            lock.lock();
+            try {
+                ChatQueue chat = chats.get(chatId);
+                while (!stopped && (size == capacity || chat != null && chat.updates.size() >= chatCapacity)) {
+                    if (!wait) {
+                        return false;
+                    }
+
+                    notFull.await();
+                    chat = chats.get(chatId);
+                }
+
+                if (stopped) {
+                    throw new IllegalStateException("Dispatcher is stopped");
+                }
+
+                if (chat == null) {
+                    chat = new ChatQueue(chatId);
+                    chats.put(chatId, chat);
+                    ready.add(chat);
+                }
+
+                chat.updates.add(update);
+                size++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Update update;
+                while ((update = take()) != null) {
+                    handle(update);
+                }
+            } catch (InterruptedException e) {
+                LOG.error("Dispatcher thread was interrupted", e);
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        @Nullable
+        private Update take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (ready.isEmpty()) {
+                    if (stopped) {
+                        return null;
+                    }
+
+                    notEmpty.await();
+                }
+
+                ChatQueue chat = ready.poll();
+                Update update = chat.updates.poll();
+                if (chat.updates.isEmpty()) {
+                    chats.remove(chat.chatId);
+                } else {
+                    // let other chats go first
+                    ready.add(chat);
+                }
+
+                size--;
+                // waiters may wait for different chats
+                notFull.signalAll();
+                return update;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Receives updates that did not fit into dispatcher queue.
+     */
+    public interface RejectionHandler {
+        /**
+         * Called on thread that passed update to dispatcher.
+         */
+        void rejected(Update update);
+    }
+
+    private static class ChatQueue {
+        private final Long chatId;
+        private final ArrayDeque<Update> updates = new ArrayDeque<>();
+
+        private ChatQueue(@Nullable Long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private static class ChatIdVisitor implements Update.Visitor {
+        private Long chatId;
+
+        @Override
+        public void visit(MessageCreatedUpdate model) {
+            chatId = getChatId(model.getMessage());
+        }
+
+        @Override
+        public void visit(MessageCallbackUpdate model) {
+            chatId = getChatId(model.getMessage());
+            if (chatId == null && model.getCallback() != null && model.getCallback().getUser() != null) {
+                chatId = model.getCallback().getUser().getUserId();
+            }
+        }
+
+        @Override
+        public void visit(MessageEditedUpdate model) {
+            chatId = getChatId(model.getMessage());
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+            chatId = null;
+        }
+
+        @Override
+        public void visit(BotAddedToChatUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visit(BotRemovedFromChatUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visit(UserAddedToChatUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visit(UserRemovedFromChatUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            chatId = model.getChatId();
+        }
+
+        @Override
+        public void visitDefault(Update model) {
+            chatId = null;
+        }
+
+        @Nullable
+        private static Long getChatId(@Nullable Message message) {
+            if (message == null) {
+                return null;
+            }
+
+            Recipient recipient = message.getRecipient();
+            if (recipient == null) {
+                return null;
+            }
+
+            return recipient.getChatId() != null ? recipient.getChatId() : recipient.getUserId();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.updates;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+
+/**
+ * Receives updates using long polling and passes them to handler.
+ * <p>
+ * Polling and handling are done in separate threads: next poll is sent as soon as current response is parsed, so
+ * waiting for network overlaps with handling of previous updates. Updates are handled one by one in order they were
+ * received. Up to {@link #maxPendingBatches(int)} received batches may wait for handler, after that polling is paused
+ * until handler catches up.
+ * <p>
+ * Marker is moved forward as soon as batch is received, so updates still waiting for handler are lost if application
+ * stops abnormally. Use {@link #getMarker()} to persist position and {@link #marker(Long)} to resume from it.
+ */
+public class UpdatePoller implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final Batch STOP = new Batch(null, 0);
+
+    private final TamTamBotAPI api;
+    private final Update.Visitor handler;
+    private final CountDownLatch terminated = new CountDownLatch(2);
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder pollErrors = new LongAdder();
+    private final LongAdder pollTimeNanos = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+    private final LongAdder handleTimeNanos = new LongAdder();
+    private final LongAdder queueTimeNanos = new LongAdder();
+
+    private Integer limit;
+    private Integer timeout = 30;
+    private Set<String> types;
+    private int maxPendingBatches = 1;
+    private long errorDelayMillis = 1000;
+
+    private volatile Long marker;
+    private volatile boolean running;
+    private volatile Future<UpdateList> currentPoll;
+    private BlockingQueue<Batch> batches;
+    private Thread pollingThread;
+    private Thread handlingThread;
+
+    public UpdatePoller(TamTamBotAPI api, Update.Visitor handler) {
+        this.api = Objects.requireNonNull(api, "api");
+        this.handler = Objects.requireNonNull(handler, "handler");
+    }
+
+    /**
+     * @param limit maximum number of updates to receive in one poll, server default is used if null
+     */
+    public UpdatePoller limit(@Nullable Integer limit) {
+        checkNotStarted();
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @param timeout long polling timeout in seconds
+     */
+    public UpdatePoller timeout(@Nullable Integer timeout) {
+        checkNotStarted();
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param types update types to receive, all types are received if null
+     */
+    public UpdatePoller types(@Nullable Set<String> types) {
+        checkNotStarted();
+        this.types = types;
+        return this;
+    }
+
+    /**
+     * @param marker position to start polling from
+     */
+    public UpdatePoller marker(@Nullable Long marker) {
+        checkNotStarted();
+        this.marker = marker;
+        return this;
+    }
+
+    /**
+     * @param maxPendingBatches how many received batches may wait for handler before polling is paused
+     */
+    public UpdatePoller maxPendingBatches(int maxPendingBatches) {
+        checkNotStarted();
+        if (maxPendingBatches < 1) {
+            throw new IllegalArgumentException("maxPendingBatches must be positive");
+        }
+
+        this.maxPendingBatches = maxPendingBatches;
+        return this;
+    }
+
+    /**
+     * @param errorDelay delay before next poll after failed one
+     */
+    public UpdatePoller errorDelay(long errorDelay, TimeUnit unit) {
+        checkNotStarted();
+        this.errorDelayMillis = unit.toMillis(errorDelay);
+        return this;
+    }
+
+    public synchronized void start() {
+        checkNotStarted();
+        running = true;
+        batches = new ArrayBlockingQueue<>(maxPendingBatches);
+        pollingThread = new Thread(this::poll, "tamtam-updates-polling");
+        handlingThread = new Thread(this::handle, "tamtam-updates-handling");
+        handlingThread.start();
+        pollingThread.start();
+    }
+
+    /**
+     * Stops polling. Current poll is cancelled, updates already received are handled before handling thread stops.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        Future<UpdateList> poll = currentPoll;
+        if (poll != null) {
+            poll.cancel(true);
+        }
+
+        pollingThread.interrupt();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * Stops poller and waits until received updates are handled. If current thread is interrupted while waiting,
+     * returns immediately keeping interrupt status, use {@link #awaitTermination(long, TimeUnit)} to wait again.
+     */
+    @Override
+    public void close() {
+        Thread pollingThread;
+        synchronized (this) {
+            stop();
+            pollingThread = this.pollingThread;
+        }
+
+        if (pollingThread == null) {
+            // never started
+            return;
+        }
+
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return marker of the last received batch
+     */
+    @Nullable
+    public Long getMarker() {
+        return marker;
+    }
+
+    public long getPollCount() {
+        return polls.sum();
+    }
+
+    public long getPollErrorCount() {
+        return pollErrors.sum();
+    }
+
+    /**
+     * @return total time spent waiting for poll responses
+     */
+    public long getPollTimeNanos() {
+        return pollTimeNanos.sum();
+    }
+
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    public long getHandlerErrorCount() {
+        return handlerErrors.sum();
+    }
+
+    /**
+     * @return total time spent in handler
+     */
+    public long getHandleTimeNanos() {
+        return handleTimeNanos.sum();
+    }
+
+    /**
+     * @return total time batches spent waiting for handler after they were received
+     */
+    public long getQueueTimeNanos() {
+        return queueTimeNanos.sum();
+    }
+
+    private void poll() {
+        try {
+            while (running) {
+                UpdateList updateList = pollOnce();
+                if (updateList == null) {
+                    continue;
+                }
+
+                List<Update> received = updateList.getUpdates();
+                if (received != null && !received.isEmpty()) {
+                    updates.add(received.size());
+                    // marker has already moved past this batch, so it must reach handler even if poller is stopped
+                    putUninterruptibly(new Batch(received, System.nanoTime()));
+                }
+            }
+        } catch (InterruptedException e) {
+            if (running) {
+                LOG.error("Polling thread was interrupted", e);
+            }
+        } finally {
+            running = false;
+            putUninterruptibly(STOP);
+            terminated.countDown();
+        }
+    }
+
+    @Nullable
+    private UpdateList pollOnce() throws InterruptedException {
+        long startedAt = System.nanoTime();
+        try {
+            Future<UpdateList> poll = api.getUpdates()
+                    .limit(limit)
+                    .timeout(timeout)
+                    .types(types)
+                    .marker(marker)
+                    .enqueue();
+
+            currentPoll = poll;
+            if (!running) {
+                poll.cancel(true);
+                return null;
+            }
+
+            UpdateList updateList = poll.get();
+            if (updateList.getMarker() != null) {
+                marker = updateList.getMarker();
+            }
+
+            return updateList;
+        } catch (CancellationException e) {
+            return null;
+        } catch (ClientException | ExecutionException e) {
+            if (!running) {
+                return null;
+            }
+
+            pollErrors.increment();
+            LOG.error("Failed to get updates, will retry in {} ms", errorDelayMillis, e);
+            Thread.sleep(errorDelayMillis);
+            return null;
+        } finally {
+            currentPoll = null;
+            polls.increment();
+            pollTimeNanos.add(System.nanoTime() - startedAt);
+        }
+    }
+
+    private void handle() {
+        try {
+            while (true) {
+                Batch batch = batches.take();
+                if (batch == STOP) {
+                    return;
+                }
+
+                long startedAt = System.nanoTime();
+                queueTimeNanos.add(startedAt - batch.receivedAt);
+                for (Update update : batch.updates) {
+                    try {
+                        update.visit(handler);
+                    } catch (RuntimeException e) {
+                        handlerErrors.increment();
+                        LOG.error("Failed to handle update {}", update, e);
+                    }
+                }
+
+                handleTimeNanos.add(System.nanoTime() - startedAt);
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Handling thread was interrupted", e);
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    private void putUninterruptibly(Batch batch) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                batches.put(batch);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkNotStarted() {
+        if (pollingThread != null) {
+            throw new IllegalStateException("Poller is already started");
+        }
+    }
+
+    private static class Batch {
+        private final List<Update> updates;
+        private final long receivedAt;
+
+        private Batch(List<Update> updates, long receivedAt) {
+            this.updates = updates;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
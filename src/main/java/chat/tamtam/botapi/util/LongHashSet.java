@@ -0,0 +1,217 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of primitive {@code long} values. Takes about 16 bytes per value and does not box them.
+ * <p>
+ * Set uses open addressing with linear probing. Set is not thread-safe.
+ */
+public class LongHashSet {
+    private static final float LOAD_FACTOR = 0.5f;
+    // marks free slot, actual zero value is tracked by separate flag
+    private static final long FREE = 0L;
+
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of values set can hold without resizing
+     */
+    public LongHashSet(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative");
+        }
+
+        allocate(LongHashing.capacityFor(expectedSize, LOAD_FACTOR));
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return hasZero;
+        }
+
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * @return {@code true} if set did not contain value
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (hasZero) {
+                return false;
+            }
+
+            hasZero = true;
+            size++;
+            return true;
+        }
+
+        int index = slot(value);
+        while (values[index] != FREE) {
+            if (values[index] == value) {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        values[index] = value;
+        if (++size > resizeAt) {
+            rehash(values.length << 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return {@code true} if set contained value
+     */
+    public boolean remove(long value) {
+        if (value == FREE) {
+            if (!hasZero) {
+                return false;
+            }
+
+            hasZero = false;
+            size--;
+            return true;
+        }
+
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+
+        shiftBack(index);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, FREE);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * Passes every value to consumer. Set must not be modified during iteration.
+     */
+    public void forEach(LongConsumer consumer) {
+        if (hasZero) {
+            consumer.accept(FREE);
+        }
+
+        for (long value : values) {
+            if (value != FREE) {
+                consumer.accept(value);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        if (hasZero) {
+            result[i++] = FREE;
+        }
+
+        for (long value : values) {
+            if (value != FREE) {
+                result[i++] = value;
+            }
+        }
+
+        return result;
+    }
+
+    private int indexOf(long value) {
+        int index = slot(value);
+        while (values[index] != FREE) {
+            if (values[index] == value) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private int slot(long value) {
+        return LongHashing.mix(value) & mask;
+    }
+
+    private void shiftBack(int index) {
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (values[next] != FREE) {
+            int home = slot(values[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                values[gap] = values[next];
+                gap = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        values[gap] = FREE;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldValues = values;
+        allocate(capacity);
+        for (long value : oldValues) {
+            if (value != FREE) {
+                int index = slot(value);
+                while (values[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+
+                values[index] = value;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.util;
+
+final class LongHashing {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private LongHashing() {
+    }
+
+    /**
+     * Spreads bits of key, so sequential ids do not form long probe sequences.
+     */
+    static int mix(long key) {
+        long h = key * GOLDEN_GAMMA;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return power of two capacity of table holding given number of keys without exceeding load factor
+     */
+    static int capacityFor(int expectedSize, float loadFactor) {
+        int capacity = 16;
+        while (capacity * loadFactor < expectedSize) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+}
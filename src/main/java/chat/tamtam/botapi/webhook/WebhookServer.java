@@ -0,0 +1,287 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.webhook;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import chat.tamtam.botapi.client.ResponseCache;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.queries.SubscribeQuery;
+import chat.tamtam.botapi.updates.UpdateDispatcher;
+
+/**
+ * Receives updates pushed to webhook registered by {@link SubscribeQuery}.
+ * <p>
+ * Server runs on JDK built-in {@link HttpServer}. Request threads only parse update and put it to
+ * {@link UpdateDispatcher}, so request is acknowledged with 200 before update is handled. If dispatcher queue is
+ * full, request is answered with 503 and will be redelivered by server later.
+ * <p>
+ * Dispatcher lifecycle is managed by caller: it must be started before updates arrive.
+ * <p>
+ * Server is not part of main artifact: it is shipped with {@code webhook} classifier, so only bots receiving updates
+ * by webhook depend on it.
+ * <p>
+ * Unlike {@link chat.tamtam.botapi.queries.GetUpdatesQuery}, pushed updates do not pass through client, so they do
+ * not invalidate its {@link ResponseCache}. Pass the cache to {@link #responseCache(ResponseCache)} to invalidate it
+ * before update is dispatched.
+ */
+public class WebhookServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final TamTamSerializer serializer;
+    private final UpdateDispatcher dispatcher;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    private InetSocketAddress address = new InetSocketAddress(8080);
+    private String path = "/";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int backlog;
+    private Set<String> types;
+    private ResponseCache responseCache;
+    private Set<String> parsedTypes;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public WebhookServer(TamTamSerializer serializer, UpdateDispatcher dispatcher) {
+        this.serializer = Objects.requireNonNull(serializer, "serializer");
+        this.dispatcher = Objects.requireNonNull(dispatcher, "dispatcher");
+    }
+
+    /**
+     * @param address address to listen on, use port 0 to pick free port
+     */
+    public WebhookServer address(InetSocketAddress address) {
+        checkNotStarted();
+        this.address = Objects.requireNonNull(address, "address");
+        return this;
+    }
+
+    /**
+     * @param path path of webhook URL
+     */
+    public WebhookServer path(String path) {
+        checkNotStarted();
+        this.path = Objects.requireNonNull(path, "path");
+        return this;
+    }
+
+    /**
+     * @param threads number of threads receiving requests
+     */
+    public WebhookServer threads(int threads) {
+        checkNotStarted();
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param backlog maximum number of pending connections, system default is used if not positive
+     */
+    public WebhookServer backlog(int backlog) {
+        checkNotStarted();
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * @param types update types to handle, others are acknowledged and dropped without being bound to model objects
+     */
+    public WebhookServer types(@Nullable Set<String> types) {
+        checkNotStarted();
+        this.types = types;
+        return this;
+    }
+
+    /**
+     * @param responseCache cache to invalidate by received updates, usually the one set to client
+     */
+    public WebhookServer responseCache(@Nullable ResponseCache responseCache) {
+        checkNotStarted();
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    public synchronized void start() throws IOException {
+        checkNotStarted();
+        parsedTypes = types;
+        if (types != null && responseCache != null) {
+            // updates changing chats must be parsed to invalidate cache even if they are not handled
+            parsedTypes = new HashSet<>(types);
+            parsedTypes.addAll(ResponseCache.INVALIDATING_TYPES);
+        }
+
+        server = HttpServer.create(address, backlog);
+        executor = Executors.newFixedThreadPool(threads, new WebhookThreadFactory());
+        server.setExecutor(executor);
+        server.createContext(path, this::handle);
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to {@code delay} seconds for current ones to complete.
+     */
+    public synchronized void stop(int delay) {
+        if (server == null) {
+            return;
+        }
+
+        server.stop(delay);
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor == null || executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    /**
+     * @return address server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        if (server == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+
+        return server.getAddress();
+    }
+
+    /**
+     * @return number of updates passed to dispatcher
+     */
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * @return number of updates dropped because of their type
+     */
+    public long getIgnoredCount() {
+        return ignored.sum();
+    }
+
+    /**
+     * @return number of requests answered with 503 because dispatcher was full or stopped
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of requests with body that could not be parsed
+     */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.sendResponseHeaders(process(exchange), -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private int process(HttpExchange exchange) {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return METHOD_NOT_ALLOWED;
+        }
+
+        Update update;
+        try {
+            update = serializer.deserializeUpdate(exchange.getRequestBody(), parsedTypes);
+        } catch (SerializationException e) {
+            malformed.increment();
+            LOG.warn("Failed to parse webhook request", e);
+            return BAD_REQUEST;
+        }
+
+        if (update != null && responseCache != null) {
+            responseCache.invalidate(update);
+        }
+
+        if (update == null || types != null && !types.contains(update.getType())) {
+            ignored.increment();
+            return OK;
+        }
+
+        try {
+            if (!dispatcher.tryDispatch(update)) {
+                rejected.increment();
+                return SERVICE_UNAVAILABLE;
+            }
+        } catch (IllegalStateException e) {
+            rejected.increment();
+            return SERVICE_UNAVAILABLE;
+        }
+
+        received.increment();
+        return OK;
+    }
+
+    private void checkNotStarted() {
+        if (server != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+    }
+
+    private static class WebhookThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "tamtam-webhook-" + counter.incrementAndGet());
+        }
+    }
+}
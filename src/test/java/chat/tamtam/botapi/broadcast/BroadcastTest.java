@@ -0,0 +1,211 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.broadcast;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.RetryPolicy;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageBody;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.SendMessageResult;
+import chat.tamtam.botapi.model.User;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BroadcastTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private final List<String> urls = new CopyOnWriteArrayList<>();
+    private final List<byte[]> bodies = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<ClientResponse>> responses = new CopyOnWriteArrayList<>();
+    private final List<Broadcast.Result> results = new CopyOnWriteArrayList<>();
+    private TamTamTransportClient transport;
+    private TamTamClient client;
+    private ClientResponse ok;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenAnswer(invocation -> {
+            urls.add((String) invocation.getArguments()[0]);
+            bodies.add((byte[]) invocation.getArguments()[1]);
+            CompletableFuture<ClientResponse> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+
+        client = new TamTamClient("token", transport, serializer);
+        client.setCallbackExecutor(Runnable::run);
+        Message message = new Message(new User(1L, "bot", null), new Recipient(1L, ChatType.CHAT, null), 1L,
+                new MessageBody("mid", 1L, "text", null));
+        ok = new ClientResponse(200, serializer.serialize(new SendMessageResult(message)), Collections.emptyMap());
+    }
+
+    @Test
+    public void shouldSendToAllRecipientsWithBoundedConcurrency() throws Exception {
+        Broadcast.Job job = new Broadcast(client).concurrency(2).send(new NewMessageBody("text", null, null),
+                Stream.of(Broadcast.Target.chat(1L), Broadcast.Target.user(2L), Broadcast.Target.chat(3L)),
+                results::add);
+
+        assertThat(responses.size(), is(2));
+        assertThat(job.getInFlightCount(), is(2));
+        responses.get(0).complete(ok);
+        assertThat(responses.size(), is(3));
+        responses.get(1).complete(ok);
+        responses.get(2).complete(ok);
+
+        job.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(job.getSucceededCount(), is(3L));
+        assertThat(job.getSubmittedCount(), is(3L));
+        assertThat(results.stream().map(Broadcast.Result::getTarget).collect(Collectors.toList()),
+                is(Arrays.asList(Broadcast.Target.chat(1L), Broadcast.Target.user(2L),
+                        Broadcast.Target.chat(3L))));
+        assertTrue(urls.get(0).contains("chat_id=1"));
+        assertTrue(urls.get(1).contains("user_id=2"));
+        // body is serialized once
+        assertThat(bodies.get(0), is(sameInstance(bodies.get(2))));
+    }
+
+    @Test
+    public void shouldReportFailuresAndRetry() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(1, 1, 1, TimeUnit.MILLISECONDS);
+        Broadcast.Job job = new Broadcast(client).retryPolicy(retryPolicy).send(new NewMessageBody("text", null, null),
+                Stream.of(Broadcast.Target.chat(1L), Broadcast.Target.chat(2L)), results::add);
+
+        responses.get(0).complete(ok);
+        responses.get(1).complete(new ClientResponse(503, new byte[0], Collections.emptyMap()));
+        awaitRequests(3);
+        responses.get(2).complete(new ClientResponse(403, "{\"code\":\"access.denied\"}".getBytes(),
+                Collections.emptyMap()));
+
+        job.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(job.getSucceededCount(), is(1L));
+        assertThat(job.getFailedCount(), is(1L));
+        assertThat(results.get(1).isSuccess(), is(false));
+        assertThat(results.get(1).getTarget(), is(Broadcast.Target.chat(2L)));
+    }
+
+    @Test
+    public void shouldCancel() throws Exception {
+        Broadcast.Job job = new Broadcast(client).concurrency(1).send(new NewMessageBody("text", null, null),
+                LongStream.range(0, 100).mapToObj(Broadcast.Target::chat), results::add);
+
+        job.cancel();
+        assertTrue(responses.get(0).isCancelled());
+        assertThat(results.get(0).getError() instanceof CancellationException, is(true));
+        assertThat(job.getSubmittedCount(), is(1L));
+        try {
+            job.getCompletion().get(5, TimeUnit.SECONDS);
+            fail("Job is cancelled");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldCloseRecipientsWhenFinished() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        Broadcast.Job job = new Broadcast(client).send(new NewMessageBody("text", null, null),
+                Stream.of(Broadcast.Target.chat(1L)).onClose(closed::incrementAndGet), results::add);
+
+        assertThat(closed.get(), is(0));
+        responses.get(0).complete(ok);
+        job.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(closed.get(), is(1));
+
+        Broadcast.Job cancelled = new Broadcast(client).concurrency(1).send(new NewMessageBody("text", null, null),
+                LongStream.range(0, 100).mapToObj(Broadcast.Target::chat).onClose(closed::incrementAndGet),
+                results::add);
+        cancelled.cancel();
+        assertThat(closed.get(), is(2));
+    }
+
+    @Test
+    public void shouldSendManyWithoutStackOverflow() throws Exception {
+        when(transport.post(anyString(), any())).thenReturn(CompletableFuture.completedFuture(ok));
+        Broadcast.Job job = new Broadcast(client).concurrency(4).send(new NewMessageBody("text", null, null),
+                LongStream.range(0, 20_000).mapToObj(Broadcast.Target::user), r -> {
+                });
+
+        job.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(job.getSucceededCount(), is(20_000L));
+        assertThat(job.getInFlightCount(), is(0));
+    }
+
+    @Test
+    public void shouldBindVariablesForEveryRecipient() throws Exception {
+        doAnswer(invocation -> {
+            bodies.add((byte[]) invocation.getArguments()[1]);
+            return CompletableFuture.completedFuture(ok);
+        }).when(transport).post(anyString(), any());
+
+        PreparedMessage message = PreparedMessage.prepare(serializer, new NewMessageBody("Hi, {{name}}", null, null));
+        Broadcast.Job job = new Broadcast(client).send(message,
+                Arrays.asList(Broadcast.Target.user(1L), Broadcast.Target.user(2L)).iterator(),
+                target -> target.getId() == 1L
+                        ? Collections.singletonMap("name", "Ann")
+                        : Collections.emptyMap(),
+                results::add);
+
+        job.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(bodies.size(), is(1));
+        assertThat(serializer.deserialize(bodies.get(0), NewMessageBody.class).getText(), is("Hi, Ann"));
+        assertThat(results.get(1).getError() instanceof IllegalArgumentException, is(true));
+        assertThat(job.getFailedCount(), is(1L));
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (responses.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertThat(responses.size(), is(count));
+    }
+}
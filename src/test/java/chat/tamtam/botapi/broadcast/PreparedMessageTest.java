@@ -0,0 +1,88 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.broadcast;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.AttachmentRequest;
+import chat.tamtam.botapi.model.Button;
+import chat.tamtam.botapi.model.CallbackButton;
+import chat.tamtam.botapi.model.InlineKeyboardAttachmentRequest;
+import chat.tamtam.botapi.model.InlineKeyboardAttachmentRequestPayload;
+import chat.tamtam.botapi.model.NewMessageBody;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PreparedMessageTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+
+    @Test
+    public void shouldReplaceVariables() throws Exception {
+        PreparedMessage message = PreparedMessage.prepare(serializer, body("Hello, {{name}}! {{ not var }}{{",
+                "{{name}}", "order:{{order_id}}"));
+        assertThat(message.getVariables(), is(Arrays.asList("name", "order_id")));
+
+        String name = "\"Jo\\hn\"\n Ünïcødé 😀 中文";
+        Map<String, String> values = new HashMap<>();
+        values.put("name", name);
+        values.put("order_id", "42");
+        byte[] bound = message.bind(values);
+
+        NewMessageBody expected = body("Hello, " + name + "! {{ not var }}{{", name, "order:42");
+        assertThat(serializer.deserialize(bound, NewMessageBody.class), is(expected));
+    }
+
+    @Test
+    public void shouldReuseBytesWithoutVariables() throws Exception {
+        PreparedMessage message = PreparedMessage.prepare(serializer, new NewMessageBody("text", null, null));
+        assertThat(message.getVariables().isEmpty(), is(true));
+        assertThat(message.bind(Collections.emptyMap()), is(sameInstance(message.getBytes())));
+    }
+
+    @Test
+    public void shouldFailOnMissingValue() throws Exception {
+        PreparedMessage message = PreparedMessage.prepare(serializer, new NewMessageBody("{{name}}", null, null));
+        try {
+            message.bind(Collections.emptyMap());
+            fail("Value is missing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static NewMessageBody body(String text, String buttonText, String payload) {
+        List<List<Button>> buttons = Collections.singletonList(Collections.singletonList(
+                new CallbackButton(payload, buttonText)));
+        AttachmentRequest keyboard = new InlineKeyboardAttachmentRequest(
+                new InlineKeyboardAttachmentRequestPayload(buttons));
+        return new NewMessageBody(text, Collections.singletonList(keyboard), null);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.BotAddedToChatUpdate;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatList;
+import chat.tamtam.botapi.model.ChatStatus;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChatDirectoryTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private TamTamTransportClient transport;
+    private ChatDirectory directory;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(response(new ChatList(Collections.emptyList(), null)));
+        TamTamClient client = new TamTamClient("token", transport, serializer);
+        client.setCallbackExecutor(Runnable::run);
+        directory = new ChatDirectory(new TamTamBotAPI(client));
+    }
+
+    @Test
+    public void shouldLoadAllPages() throws Exception {
+        when(transport.get(anyString())).thenReturn(response(new ChatList(Arrays.asList(chat(1L), chat(2L)), 2L)));
+        when(transport.get(contains("marker=2"))).thenReturn(response(new ChatList(
+                Collections.singletonList(chat(3L)), null)));
+
+        assertThat(directory.load(), is(3));
+        assertThat(directory.get(3L), is(chat(3L)));
+        assertThat(directory.contains(4L), is(false));
+        assertThat(directory.getChats().size(), is(3));
+    }
+
+    @Test
+    public void shouldApplyUpdates() throws Exception {
+        directory.put(chat(1L));
+        when(transport.get(contains("/chats/2"))).thenReturn(response(chat(2L)));
+
+        directory.apply(new BotAddedToChatUpdate(2L, 10L, 1L));
+        assertThat(directory.get(2L), is(chat(2L)));
+
+        directory.apply(new ChatTitleChangedUpdate(1L, 10L, "new title", 2L));
+        assertThat(directory.get(1L).getTitle(), is("new title"));
+
+        directory.apply(new BotRemovedFromChatUpdate(1L, 10L, 3L));
+        directory.apply(new MessageRemovedUpdate("mid", 4L));
+        assertThat(directory.get(1L), is(nullValue()));
+        assertThat(directory.size(), is(1));
+    }
+
+    @Test
+    public void shouldDropFetchedChatIfBotRemovedMeanwhile() throws Exception {
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        when(transport.get(contains("/chats/2"))).thenReturn(pending);
+
+        directory.apply(new BotAddedToChatUpdate(2L, 10L, 1L));
+        directory.apply(new BotRemovedFromChatUpdate(2L, 10L, 2L));
+        pending.complete(new ClientResponse(200, serializer.serialize(chat(2L)), Collections.emptyMap()));
+
+        assertThat(directory.contains(2L), is(false));
+    }
+
+    @Test
+    public void shouldCountFailedFetches() throws Exception {
+        when(transport.get(contains("/chats/2"))).thenReturn(CompletableFuture.completedFuture(
+                new ClientResponse(404, new byte[0], Collections.emptyMap())));
+
+        directory.apply(new BotAddedToChatUpdate(2L, 10L, 1L));
+        assertThat(directory.contains(2L), is(false));
+        assertThat(directory.getFetchErrorCount(), is(1L));
+        assertThat(directory.getPendingFetchCount(), is(0));
+    }
+
+    @Test
+    public void shouldForgetFailedFetchWithoutDroppingNewerOne() throws Exception {
+        CompletableFuture<ClientResponse> first = new CompletableFuture<>();
+        CompletableFuture<ClientResponse> second = new CompletableFuture<>();
+        when(transport.get(contains("/chats/2"))).thenReturn(first, second);
+
+        directory.apply(new BotAddedToChatUpdate(2L, 10L, 1L));
+        directory.apply(new BotAddedToChatUpdate(2L, 10L, 2L));
+        first.complete(new ClientResponse(404, new byte[0], Collections.emptyMap()));
+        assertThat(directory.getPendingFetchCount(), is(1));
+
+        second.complete(new ClientResponse(200, serializer.serialize(chat(2L)), Collections.emptyMap()));
+        assertThat(directory.get(2L), is(chat(2L)));
+        assertThat(directory.getPendingFetchCount(), is(0));
+    }
+
+    @Test
+    public void shouldKeepTitleChangedWhileLoading() throws Exception {
+        CompletableFuture<ClientResponse> page = new CompletableFuture<>();
+        CountDownLatch requested = new CountDownLatch(1);
+        when(transport.get(anyString())).thenAnswer(invocation -> {
+            requested.countDown();
+            return page;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> loaded = executor.submit(directory::load);
+            assertTrue(requested.await(5, TimeUnit.SECONDS));
+            directory.apply(new ChatTitleChangedUpdate(1L, 10L, "new title", 2L));
+            page.complete(new ClientResponse(200, serializer.serialize(new ChatList(
+                    Arrays.asList(chat(1L), chat(2L)), null)), Collections.emptyMap()));
+
+            assertThat(loaded.get(5, TimeUnit.SECONDS), is(2));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(directory.get(1L).getTitle(), is("new title"));
+        assertThat(directory.get(2L), is(chat(2L)));
+    }
+
+    @Test
+    public void shouldIgnoreUpdatesWithoutChatId() throws Exception {
+        directory.apply(new BotAddedToChatUpdate(null, 10L, 1L));
+        directory.apply(new BotRemovedFromChatUpdate(null, 10L, 2L));
+        directory.apply(new ChatTitleChangedUpdate(null, 10L, "title", 3L));
+
+        assertThat(directory.size(), is(0));
+        assertThat(directory.getPendingFetchCount(), is(0));
+    }
+
+    private CompletableFuture<ClientResponse> response(Object body) throws Exception {
+        return CompletableFuture.completedFuture(new ClientResponse(200, serializer.serialize(body),
+                Collections.emptyMap()));
+    }
+
+    private static Chat chat(long chatId) {
+        return new Chat(chatId, ChatType.CHAT, ChatStatus.ACTIVE, "chat " + chatId, null, 1L, 2, false, null);
+    }
+}
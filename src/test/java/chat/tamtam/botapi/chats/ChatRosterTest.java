@@ -0,0 +1,153 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
+import chat.tamtam.botapi.model.ChatMember;
+import chat.tamtam.botapi.model.ChatMembersList;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChatRosterTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private TamTamTransportClient transport;
+    private ChatRoster roster;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(page(Arrays.asList(member(1L), member(2L)), 5L));
+        when(transport.get(contains("marker=5"))).thenReturn(page(Collections.singletonList(member(3L)), null));
+        roster = new ChatRoster(new TamTamBotAPI("token", transport, serializer));
+    }
+
+    @Test
+    public void shouldLoadMembersOnce() throws Exception {
+        assertThat(roster.isMember(10L, 3L), is(true));
+        assertThat(roster.isMember(10L, 4L), is(false));
+        assertThat(roster.getMemberCount(10L), is(3));
+        verify(transport, times(2)).get(anyString());
+        assertThat(roster.getLoadCount(), is(1L));
+    }
+
+    @Test
+    public void shouldApplyDeltas() throws Exception {
+        roster.getMembers(10L);
+        roster.apply(new UserAddedToChatUpdate(10L, 4L, 1L, 1L));
+        roster.apply(new UserRemovedFromChatUpdate(10L, 1L, 2L, 2L));
+        // not loaded chats are ignored
+        roster.apply(new UserAddedToChatUpdate(20L, 4L, 1L, 1L));
+
+        assertThat(roster.isMember(10L, 4L), is(true));
+        assertThat(roster.isMember(10L, 1L), is(false));
+        assertThat(roster.getLoadCount(), is(1L));
+        assertThat(roster.getDriftCount(), is(0L));
+    }
+
+    @Test
+    public void shouldReloadOnDrift() throws Exception {
+        roster.getMembers(10L);
+        roster.apply(new UserRemovedFromChatUpdate(10L, 7L, 2L, 2L));
+        assertThat(roster.getDriftCount(), is(1L));
+
+        roster.isMember(10L, 1L);
+        assertThat(roster.getLoadCount(), is(2L));
+
+        roster.verify(10L, 3);
+        roster.isMember(10L, 1L);
+        assertThat(roster.getLoadCount(), is(2L));
+
+        roster.verify(10L, 4);
+        roster.isMember(10L, 1L);
+        assertThat(roster.getLoadCount(), is(3L));
+        assertThat(roster.getDriftCount(), is(2L));
+    }
+
+    @Test
+    public void shouldForgetChatWhenBotRemoved() throws Exception {
+        roster.getMembers(10L);
+        roster.apply(new BotRemovedFromChatUpdate(10L, 1L, 1L));
+        roster.getMembers(10L);
+        assertThat(roster.getLoadCount(), is(2L));
+    }
+
+    @Test
+    public void shouldKeepChangesReceivedWhileLoading() throws Exception {
+        CompletableFuture<ClientResponse> lastPage = new CompletableFuture<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        when(transport.get(contains("marker=5"))).thenAnswer(invocation -> {
+            loading.countDown();
+            return lastPage;
+        });
+
+        Thread loader = new Thread(() -> {
+            try {
+                roster.getMembers(10L);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        loader.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        roster.apply(new UserAddedToChatUpdate(10L, 4L, 1L, 1L));
+        roster.apply(new UserRemovedFromChatUpdate(10L, 3L, 2L, 2L));
+        lastPage.complete(page(Collections.singletonList(member(3L)), null).get());
+        loader.join();
+
+        long[] members = roster.getMembers(10L);
+        Arrays.sort(members);
+        assertThat(members, is(new long[]{1L, 2L, 4L}));
+    }
+
+    private CompletableFuture<ClientResponse> page(List<ChatMember> members, Long marker) throws Exception {
+        return CompletableFuture.completedFuture(new ClientResponse(200,
+                serializer.serialize(new ChatMembersList(members, marker)), Collections.emptyMap()));
+    }
+
+    private static ChatMember member(long userId) {
+        return new ChatMember(1L, false, false, 1L, null, userId, "user " + userId, null, null, null);
+    }
+}
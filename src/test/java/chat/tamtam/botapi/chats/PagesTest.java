@@ -0,0 +1,165 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.chats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.exceptions.APIException;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatList;
+import chat.tamtam.botapi.model.ChatMember;
+import chat.tamtam.botapi.model.ChatMembersList;
+import chat.tamtam.botapi.model.ChatStatus;
+import chat.tamtam.botapi.model.ChatType;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PagesTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private final List<String> urls = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<ClientResponse>> responses = new CopyOnWriteArrayList<>();
+    private TamTamBotAPI api;
+
+    @Before
+    public void setUp() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenAnswer(invocation -> {
+            urls.add((String) invocation.getArguments()[0]);
+            CompletableFuture<ClientResponse> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+
+        TamTamClient client = new TamTamClient("token", transport, serializer);
+        client.setCallbackExecutor(Runnable::run);
+        api = new TamTamBotAPI(client);
+    }
+
+    @Test
+    public void shouldIterateAllPages() throws Exception {
+        Pages.PageIterator<Chat> iterator = Pages.chats(api).pageSize(2).prefetch(3).iterator();
+        respond(0, new ChatList(Arrays.asList(chat(1L), chat(2L)), 10L));
+        respond(1, new ChatList(Collections.singletonList(chat(3L)), 20L));
+        respond(2, new ChatList(Collections.emptyList(), 30L));
+        respond(3, new ChatList(Collections.singletonList(chat(4L)), null));
+
+        List<Long> ids = new ArrayList<>();
+        iterator.forEachRemaining(chat -> ids.add(chat.getChatId()));
+        assertThat(ids, is(Arrays.asList(1L, 2L, 3L, 4L)));
+        assertThat(urls.size(), is(4));
+        assertTrue(urls.get(0).contains("count=2"));
+        assertFalse(urls.get(0).contains("marker"));
+        assertTrue(urls.get(3).contains("marker=30"));
+    }
+
+    @Test
+    public void shouldPrefetchLimitedNumberOfPages() throws Exception {
+        Pages.PageIterator<ChatMember> iterator = Pages.members(api, 1L).prefetch(1).iterator();
+        assertThat(urls.size(), is(1));
+
+        respond(0, new ChatMembersList(Collections.singletonList(member(1L)), 10L));
+        assertThat(iterator.next().getUserId(), is(1L));
+        // second page is requested while first one is consumed
+        assertThat(urls.size(), is(2));
+
+        respond(1, new ChatMembersList(Collections.singletonList(member(2L)), 20L));
+        assertThat(urls.size(), is(2));
+        assertThat(iterator.next().getUserId(), is(2L));
+        assertThat(urls.size(), is(3));
+
+        respond(2, new ChatMembersList(Collections.singletonList(member(3L)), null));
+        assertThat(iterator.next().getUserId(), is(3L));
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(urls.size(), is(3));
+    }
+
+    @Test
+    public void shouldCancelPrefetchedRequestsOnClose() throws Exception {
+        Stream<Chat> stream = Pages.chats(api).prefetch(1).stream();
+        respond(0, new ChatList(Arrays.asList(chat(1L), chat(2L)), 10L));
+
+        assertThat(stream.findFirst().get().getChatId(), is(1L));
+        assertThat(urls.size(), is(2));
+        stream.close();
+        assertTrue(responses.get(1).isCancelled());
+    }
+
+    @Test
+    public void shouldThrowFailedPage() throws Exception {
+        Pages.PageIterator<Chat> iterator = Pages.chats(api).iterator();
+        respond(0, new ChatList(Collections.singletonList(chat(1L)), 10L));
+        responses.get(1).complete(new ClientResponse(500, "{\"code\":\"internal\"}".getBytes(),
+                Collections.emptyMap()));
+
+        iterator.next();
+        try {
+            iterator.hasNext();
+            fail("Page failed");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(APIException.class)));
+        }
+    }
+
+    @Test
+    public void shouldStreamItems() throws Exception {
+        Stream<Chat> stream = Pages.chats(api).prefetch(0).stream();
+        respond(0, new ChatList(Arrays.asList(chat(1L), chat(2L)), null));
+        assertThat(stream.map(Chat::getChatId).collect(Collectors.toList()), is(Arrays.asList(1L, 2L)));
+        assertThat(urls.size(), is(1));
+    }
+
+    private void respond(int request, Object body) throws Exception {
+        assertTrue("Page " + request + " is not requested", responses.size() > request);
+        responses.get(request).complete(new ClientResponse(200, serializer.serialize(body), Collections.emptyMap()));
+    }
+
+    private static Chat chat(long chatId) {
+        return new Chat(chatId, ChatType.CHAT, ChatStatus.ACTIVE, "chat " + chatId, null, 1L, 2, false, null);
+    }
+
+    private static ChatMember member(long userId) {
+        return new ChatMember(1L, false, false, 1L, null, userId, "user " + userId, null, null, null);
+    }
+}
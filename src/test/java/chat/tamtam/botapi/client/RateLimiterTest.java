@@ -0,0 +1,115 @@
+package chat.tamtam.botapi.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import chat.tamtam.botapi.exceptions.RateLimitExceededException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+    @Test
+    public void shouldAllowBurstThenThrottle() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 100);
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.acquire(null, null), is(0L));
+        }
+
+        long wait = limiter.acquire(null, null);
+        assertThat(wait, is(greaterThan(0L)));
+        assertThat(wait, is(lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))));
+        // next request waits for its own token after the previous one
+        assertThat(limiter.acquire(null, null), is(greaterThan(wait)));
+        assertThat(limiter.getThrottledCount(), is(2L));
+        assertThat(limiter.getThrottledTimeNanos(), is(greaterThan(wait)));
+    }
+
+    @Test
+    public void shouldLimitEveryRecipientSeparately() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        assertThat(limiter.acquire(1L, null), is(0L));
+        assertThat(limiter.acquire(1L, null), is(greaterThan(0L)));
+        assertThat(limiter.acquire(2L, null), is(0L));
+        assertThat(limiter.acquire(null, 1L), is(0L));
+        assertThat(limiter.acquire(null, 1L), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void shouldFailFastWithoutTakingTokens() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 1).mode(RateLimiter.Mode.FAIL_FAST);
+        assertThat(limiter.acquire(1L, null), is(0L));
+        for (int i = 0; i < 3; i++) {
+            try {
+                limiter.acquire(1L, null);
+                fail("Should be rejected");
+            } catch (RateLimitExceededException e) {
+                // expected
+            }
+        }
+
+        assertThat(limiter.getRejectedCount(), is(3L));
+        assertThat(limiter.getThrottledCount(), is(0L));
+        // rejected requests did not take global tokens
+        for (int i = 0; i < 99; i++) {
+            assertThat(limiter.acquire((long) i + 2, null), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldAdaptRateToErrors() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 100).minRate(30).cooldown(0, TimeUnit.MILLISECONDS);
+        limiter.onTooManyRequests();
+        assertThat(limiter.getRate(), is(50.0));
+        limiter.onTooManyRequests();
+        assertThat(limiter.getRate(), is(30.0));
+
+        limiter.onSuccess();
+        assertThat(limiter.getRate(), is(31.0));
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+
+        assertThat(limiter.getRate(), is(100.0));
+        assertThat(limiter.getTooManyRequestsCount(), is(2L));
+    }
+
+    @Test
+    public void shouldDecreaseRateOncePerCooldown() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 100).cooldown(1, TimeUnit.HOURS);
+        limiter.onTooManyRequests();
+        limiter.onTooManyRequests();
+        limiter.onTooManyRequests();
+        assertThat(limiter.getRate(), is(50.0));
+        assertThat(limiter.getTooManyRequestsCount(), is(3L));
+    }
+
+    @Test
+    public void shouldForgetIdleRecipients() throws Exception {
+        RateLimiter limiter = new RateLimiter(1_000_000, 1_000_000).recipientBurst(1);
+        for (long i = 0; i < 100; i++) {
+            limiter.acquire(i, null);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(10);
+        limiter.acquire(100L, null);
+        assertThat(limiter.getRecipientCount(), is(1));
+    }
+
+    @Test
+    public void shouldBoundNumberOfRecipients() throws Exception {
+        RateLimiter limiter = new RateLimiter(1_000_000, 0.001).recipientBurst(1);
+        for (long i = 0; i < 20_000; i++) {
+            assertThat(limiter.acquire(i, null), is(0L));
+        }
+
+        assertThat(limiter.getRecipientCount(), is(lessThanOrEqualTo(10_000)));
+        // least recently used recipient has been forgotten
+        assertThat(limiter.acquire(0L, null), is(0L));
+        assertThat(limiter.acquire(19_999L, null), is(greaterThan(0L)));
+    }
+}
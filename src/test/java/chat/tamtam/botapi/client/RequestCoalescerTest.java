@@ -0,0 +1,100 @@
+package chat.tamtam.botapi.client;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RequestCoalescerTest {
+    private static final ClientResponse RESPONSE = new ClientResponse(200, new byte[0], Collections.emptyMap());
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+    private TamTamTransportClient transport;
+    private CompletableFuture<ClientResponse> pending;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(TamTamTransportClient.class);
+        pending = new CompletableFuture<>();
+        when(transport.get(anyString())).thenReturn(pending, new CompletableFuture<>());
+    }
+
+    @Test
+    public void shouldMergeIdenticalRequests() throws Exception {
+        Future<ClientResponse> first = coalescer.get("/chats/1", transport);
+        Future<ClientResponse> second = coalescer.get("/chats/1", transport);
+        assertThat(first, is(not(sameInstance(second))));
+        verify(transport, times(1)).get("/chats/1");
+
+        pending.complete(RESPONSE);
+        assertThat(first.get(), is(RESPONSE));
+        assertThat(second.get(), is(RESPONSE));
+        assertThat(coalescer.getSentCount(), is(1L));
+        assertThat(coalescer.getCoalescedCount(), is(1L));
+        assertThat(coalescer.getInFlightCount(), is(0));
+    }
+
+    @Test
+    public void shouldNotMergeDifferentRequests() throws Exception {
+        coalescer.get("/chats/1", transport);
+        coalescer.get("/chats/2", transport);
+        verify(transport, times(1)).get("/chats/1");
+        verify(transport, times(1)).get("/chats/2");
+    }
+
+    @Test
+    public void shouldNotReuseCompletedRequest() throws Exception {
+        coalescer.get("/chats/1", transport);
+        pending.complete(RESPONSE);
+        coalescer.get("/chats/1", transport);
+        verify(transport, times(2)).get("/chats/1");
+    }
+
+    @Test
+    public void shouldCancelRequestOnlyWhenAllCallersCancelled() throws Exception {
+        Future<ClientResponse> first = coalescer.get("/chats/1", transport);
+        Future<ClientResponse> second = coalescer.get("/chats/1", transport);
+
+        assertTrue(first.cancel(true));
+        assertThat(pending.isCancelled(), is(false));
+        assertTrue(second.cancel(true));
+        assertThat(pending.isCancelled(), is(true));
+
+        // abandoned request is not joined
+        coalescer.get("/chats/1", transport);
+        verify(transport, times(2)).get("/chats/1");
+    }
+
+    @Test
+    public void shouldDetachViewFailedByDeadline() throws Exception {
+        CompletableFuture<ClientResponse> view = (CompletableFuture<ClientResponse>) coalescer.get("/chats/1",
+                transport);
+
+        view.completeExceptionally(new RuntimeException("deadline"));
+        view.cancel(true);
+        assertThat(pending.isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldPassThroughPlainFutures() throws Exception {
+        FutureTask<ClientResponse> plain = new FutureTask<>(() -> RESPONSE);
+        when(transport.get(anyString())).thenReturn(plain);
+        assertThat(coalescer.get("/chats/1", transport), is(sameInstance(plain)));
+        coalescer.get("/chats/1", transport);
+        verify(transport, times(2)).get("/chats/1");
+    }
+}
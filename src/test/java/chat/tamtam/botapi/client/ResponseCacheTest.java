@@ -0,0 +1,106 @@
+package chat.tamtam.botapi.client;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.UserAddedToChatUpdate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ResponseCacheTest {
+    private static final ClientResponse RESPONSE = new ClientResponse(200, new byte[0], Collections.emptyMap());
+    private static final ResponseCache.Key CHAT_1 = ResponseCache.Key.of(ResponseCache.Region.CHAT, 1L);
+    private static final ResponseCache.Key CHAT_2 = ResponseCache.Key.of(ResponseCache.Region.CHAT, 2L);
+    private static final ResponseCache.Key MEMBERSHIP_1 = ResponseCache.Key.of(ResponseCache.Region.MEMBERSHIP, 1L);
+
+    private final ResponseCache cache = new ResponseCache(2);
+
+    @Test
+    public void shouldCacheSuccessfulResponses() throws Exception {
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        cache.put(CHAT_2, new ClientResponse(404, new byte[0], Collections.emptyMap()), cache.getGeneration(CHAT_2));
+
+        assertThat(cache.get(CHAT_1), is(RESPONSE));
+        assertThat(cache.get(CHAT_2), is(nullValue()));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        cache.put(CHAT_2, RESPONSE, cache.getGeneration(CHAT_2));
+        cache.get(CHAT_1);
+        cache.put(MEMBERSHIP_1, RESPONSE, cache.getGeneration(MEMBERSHIP_1));
+
+        assertThat(cache.getSize(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.get(CHAT_1), is(RESPONSE));
+        assertThat(cache.get(CHAT_2), is(nullValue()));
+    }
+
+    @Test
+    public void shouldExpireEntries() throws Exception {
+        cache.ttl(ResponseCache.Region.CHAT, 1, TimeUnit.MILLISECONDS);
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        Thread.sleep(5);
+
+        assertThat(cache.get(CHAT_1), is(nullValue()));
+        assertThat(cache.getSize(), is(0));
+    }
+
+    @Test
+    public void shouldNotCacheDisabledRegion() throws Exception {
+        cache.ttl(ResponseCache.Region.CHAT, 0, TimeUnit.SECONDS);
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        assertThat(cache.get(CHAT_1), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheResponseRequestedBeforeInvalidation() throws Exception {
+        long generation = cache.getGeneration(CHAT_1);
+        cache.invalidate(CHAT_1);
+        cache.put(CHAT_1, RESPONSE, generation);
+        assertThat(cache.get(CHAT_1), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCacheResponseRequestedBeforeInvalidationOfOtherKey() throws Exception {
+        long generation = cache.getGeneration(CHAT_1);
+        cache.invalidate(CHAT_2);
+        cache.invalidate(MEMBERSHIP_1);
+        cache.put(CHAT_1, RESPONSE, generation);
+        assertThat(cache.get(CHAT_1), is(RESPONSE));
+    }
+
+    @Test
+    public void shouldNotCacheResponseRequestedBeforeInvalidationOfAll() throws Exception {
+        long generation = cache.getGeneration(CHAT_1);
+        cache.invalidateAll();
+        cache.put(CHAT_1, RESPONSE, generation);
+        assertThat(cache.get(CHAT_1), is(nullValue()));
+    }
+
+    @Test
+    public void shouldInvalidateByUpdates() throws Exception {
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        cache.put(MEMBERSHIP_1, RESPONSE, cache.getGeneration(MEMBERSHIP_1));
+        cache.invalidate(new MessageRemovedUpdate("mid", 1L));
+        assertThat(cache.getSize(), is(2));
+
+        cache.invalidate(new ChatTitleChangedUpdate(1L, 2L, "title", 1L));
+        assertThat(cache.get(CHAT_1), is(nullValue()));
+        assertThat(cache.get(MEMBERSHIP_1), is(RESPONSE));
+
+        cache.put(CHAT_1, RESPONSE, cache.getGeneration(CHAT_1));
+        cache.invalidate(new UserAddedToChatUpdate(1L, 2L, 3L, 1L));
+        assertThat(cache.getSize(), is(0));
+        assertThat(cache.getInvalidationCount(), is(3L));
+    }
+}
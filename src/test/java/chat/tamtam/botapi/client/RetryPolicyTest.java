@@ -0,0 +1,76 @@
+package chat.tamtam.botapi.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import chat.tamtam.botapi.exceptions.APIException;
+import chat.tamtam.botapi.exceptions.AttachmentNotReadyException;
+import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.exceptions.ServiceNotAvailableException;
+import chat.tamtam.botapi.exceptions.TooManyRequestsException;
+import chat.tamtam.botapi.exceptions.TransportClientException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final ClientException TRANSPORT_EXCEPTION = new ClientException("test",
+            new TransportClientException("test"));
+
+    @Test
+    public void shouldRetryOnlyRetryableErrors() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS);
+        assertThat(policy.isRetryable(new TooManyRequestsException("test"), false), is(true));
+        assertThat(policy.isRetryable(new ServiceNotAvailableException("test"), false), is(true));
+        assertThat(policy.isRetryable(new AttachmentNotReadyException(), false), is(true));
+        assertThat(policy.isRetryable(TRANSPORT_EXCEPTION, true), is(true));
+        assertThat(policy.isRetryable(TRANSPORT_EXCEPTION, false), is(false));
+        assertThat(policy.isRetryable(new APIException(400), true), is(false));
+        assertThat(policy.isRetryable(new ClientException("test", new RuntimeException()), true), is(false));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyWithJitter() throws Exception {
+        long base = TimeUnit.MILLISECONDS.toNanos(100);
+        RetryPolicy policy = new RetryPolicy(100, 100, 1000, TimeUnit.MILLISECONDS).budget(0, 0, 1000);
+        TooManyRequestsException failure = new TooManyRequestsException("test");
+        for (int i = 0; i < 20; i++) {
+            assertBetween(policy.backoff("GET /me", true, failure, 0), base / 2, base);
+            assertBetween(policy.backoff("GET /me", true, failure, 2), base * 2, base * 4);
+            assertBetween(policy.backoff("GET /me", true, failure, 70), base * 5, base * 10);
+        }
+
+        assertThat(policy.getRetryCount("GET /me"), is(60L));
+    }
+
+    @Test
+    public void shouldStopAfterMaxRetries() throws Exception {
+        RetryPolicy policy = new RetryPolicy(2, 1, 10, TimeUnit.MILLISECONDS);
+        TooManyRequestsException failure = new TooManyRequestsException("test");
+        assertThat(policy.backoff("GET /me", true, failure, 1) >= 0, is(true));
+        assertThat(policy.backoff("GET /me", true, failure, 2), is(-1L));
+        assertThat(policy.backoff("GET /me", true, new APIException(400), 0), is(-1L));
+    }
+
+    @Test
+    public void shouldLimitRetriesByBudget() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 1, 10, TimeUnit.MILLISECONDS).budget(0.5, 0, 2);
+        TooManyRequestsException failure = new TooManyRequestsException("test");
+        assertThat(policy.backoff("GET /me", true, failure, 0) >= 0, is(true));
+        assertThat(policy.backoff("POST /messages", true, failure, 0) >= 0, is(true));
+        assertThat(policy.backoff("GET /me", true, failure, 0), is(-1L));
+        assertThat(policy.getBudgetExhaustedCount(), is(1L));
+
+        policy.onRequest();
+        policy.onRequest();
+        assertThat(policy.backoff("GET /me", true, failure, 0) >= 0, is(true));
+        assertThat(policy.getRetryCounts().get("GET /me"), is(2L));
+        assertThat(policy.getRetryCounts().get("POST /messages"), is(1L));
+    }
+
+    private static void assertBetween(long value, long min, long max) {
+        assertTrue(value + " is not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
@@ -0,0 +1,107 @@
+package chat.tamtam.botapi.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.User;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class TamTamSerializerTest {
+    private final JacksonSerializer jackson = new JacksonSerializer();
+    // implements only methods serializers had to implement before default ones were added
+    private final TamTamSerializer serializer = new TamTamSerializer() {
+        @Nullable
+        @Override
+        public byte[] serialize(@Nullable Object object) throws SerializationException {
+            return jackson.serialize(object);
+        }
+
+        @Nullable
+        @Override
+        public <T> T deserialize(@Nullable String data, Class<T> responseType) throws SerializationException {
+            return jackson.deserialize(data, responseType);
+        }
+    };
+
+    @Test
+    public void shouldDeserializeBytesAndStreamByDefault() throws Exception {
+        User user = new User(1L, "name", "username");
+        byte[] data = jackson.serialize(user);
+
+        assertThat(serializer.deserialize(data, User.class), is(user));
+        assertThat(serializer.deserialize(new ByteArrayInputStream(data), User.class), is(user));
+        assertThat(serializer.deserialize((byte[]) null, User.class), is(nullValue()));
+    }
+
+    @Test
+    public void shouldVisitUpdatesByDefault() throws Exception {
+        Update created = new MessageCreatedUpdate(null, 1L);
+        Update started = new BotStartedUpdate(1L, 2L, 3L);
+        byte[] data = jackson.serialize(new UpdateList(Arrays.asList(created, started), 10L));
+        List<Update> visited = new ArrayList<>();
+        Update.Visitor visitor = (Update.Visitor) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{Update.Visitor.class}, (proxy, method, args) -> visited.add((Update) args[0]));
+
+        assertThat(serializer.deserializeUpdates(data, visitor, null), is(10L));
+        assertThat(visited, is(Arrays.asList(created, started)));
+
+        visited.clear();
+        Set<String> types = Collections.singleton(started.getType());
+        assertThat(serializer.deserializeUpdates(new ByteArrayInputStream(data), visitor, types), is(10L));
+        assertThat(visited, is(Collections.singletonList(started)));
+    }
+
+    @Test
+    public void shouldSkipUpdateOfUnknownTypeWhenFiltering() throws Exception {
+        String data = "{\"updates\":[{\"update_type\":\"unknown_update\",\"timestamp\":1}],\"marker\":10}";
+        List<Update> visited = new ArrayList<>();
+        Update.Visitor visitor = (Update.Visitor) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{Update.Visitor.class}, (proxy, method, args) -> visited.add((Update) args[0]));
+
+        assertThat(serializer.deserializeUpdates(data.getBytes(StandardCharsets.UTF_8), visitor,
+                Collections.singleton(Update.BOT_STARTED)), is(10L));
+        assertThat(visited.isEmpty(), is(true));
+
+        assertThat(serializer.deserializeUpdates(data.getBytes(StandardCharsets.UTF_8), visitor, null), is(10L));
+        assertThat(visited.size(), is(1));
+    }
+
+    @Test
+    public void shouldFilterUpdateByDefault() throws Exception {
+        Update started = new BotStartedUpdate(1L, 2L, 3L);
+        byte[] data = jackson.serialize(started);
+
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data), null), is(started));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data),
+                Collections.singleton(started.getType())), is(started));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data),
+                Collections.singleton("message_created")), is(nullValue()));
+    }
+
+    @Test
+    public void shouldSkipSingleUpdateOfUnknownTypeWhenFiltering() throws Exception {
+        byte[] data = "{\"update_type\":\"unknown_update\",\"timestamp\":1}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data),
+                Collections.singleton(Update.BOT_STARTED)), is(nullValue()));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data), null).getTimestamp(), is(1L));
+    }
+}
@@ -1,8 +1,25 @@
 package chat.tamtam.botapi.client.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.junit.Test;
 
 import chat.tamtam.botapi.exceptions.SerializationException;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.FailByDefaultUpdateVisitor;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.User;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.nullValue;
@@ -21,8 +38,134 @@ public class JacksonSerializerTest {
 
     @Test
     public void shouldReturnNullOnEmptyInput() throws Exception {
-        assertThat(serializer.deserialize(null, Object.class), is(nullValue()));
+        assertThat(serializer.deserialize((String) null, Object.class), is(nullValue()));
         assertThat(serializer.deserialize("", Object.class), is(nullValue()));
+        assertThat(serializer.deserialize((byte[]) null, Object.class), is(nullValue()));
+        assertThat(serializer.deserialize(new byte[0], Object.class), is(nullValue()));
+        assertThat(serializer.deserialize((InputStream) null, Object.class), is(nullValue()));
+        assertThat(serializer.deserialize(new ByteArrayInputStream(new byte[0]), Object.class), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDeserializeFromBytesAndStream() throws Exception {
+        User user = new User(1L, "name", "username");
+        byte[] data = serializer.serialize(user);
+        assertThat(serializer.deserialize(data, User.class), is(user));
+        assertThat(serializer.deserialize(new ByteArrayInputStream(data), User.class), is(user));
+        assertThat(serializer.deserialize(new String(data, StandardCharsets.UTF_8), User.class), is(user));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void shouldThrowSerializationExceptionOnInvalidBytes() throws Exception {
+        serializer.deserialize("{\"user_id\":".getBytes(StandardCharsets.UTF_8), User.class);
+    }
+
+    @Test
+    public void shouldStreamUpdates() throws Exception {
+        List<Update> updates = Arrays.asList(
+                new BotStartedUpdate(1L, 2L, 3L),
+                new MessageRemovedUpdate("mid.1", 4L),
+                new ChatTitleChangedUpdate(5L, 6L, "title", 7L)
+        );
+
+        byte[] data = serializer.serialize(new UpdateList(updates, 100L));
+        List<Update> received = new ArrayList<>();
+        Long marker = serializer.deserializeUpdates(data, new CollectingVisitor(received), null);
+        assertThat(marker, is(100L));
+        assertThat(received, is(updates));
+
+        received.clear();
+        marker = serializer.deserializeUpdates(new ByteArrayInputStream(data), new CollectingVisitor(received),
+                null);
+        assertThat(marker, is(100L));
+        assertThat(received, is(updates));
+    }
+
+    @Test
+    public void shouldStreamUpdatesRegardlessOfFieldsOrder() throws Exception {
+        String json = "{\"marker\":42,\"unknown\":{\"a\":[1,2]},\"updates\":[null,"
+                + "{\"timestamp\":1,\"update_type\":\"message_removed\",\"message_id\":\"mid.1\"}]}";
+
+        List<Update> received = new ArrayList<>();
+        Long marker = serializer.deserializeUpdates(json.getBytes(StandardCharsets.UTF_8),
+                new CollectingVisitor(received), null);
+
+        assertThat(marker, is(42L));
+        assertThat(received, is(Collections.singletonList(new MessageRemovedUpdate("mid.1", 1L))));
+    }
+
+    @Test
+    public void shouldReturnNullMarkerOnEmptyUpdates() throws Exception {
+        List<Update> received = new ArrayList<>();
+        CollectingVisitor visitor = new CollectingVisitor(received);
+        assertThat(serializer.deserializeUpdates((byte[]) null, visitor, null), is(nullValue()));
+        assertThat(serializer.deserializeUpdates(new byte[0], visitor, null), is(nullValue()));
+        assertThat(serializer.deserializeUpdates("{\"updates\":[]}".getBytes(StandardCharsets.UTF_8), visitor,
+                null), is(nullValue()));
+        assertThat(received.isEmpty(), is(true));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void shouldThrowSerializationExceptionOnInvalidUpdates() throws Exception {
+        serializer.deserializeUpdates("[]".getBytes(StandardCharsets.UTF_8), new CollectingVisitor(new ArrayList<>()),
+                null);
+    }
+
+    @Test
+    public void shouldSkipUnwantedUpdateTypes() throws Exception {
+        // unwanted updates have invalid content to make sure they are never bound
+        String json = "{\"updates\":["
+                + "{\"update_type\":\"message_edited\",\"message\":42,\"timestamp\":1},"
+                + "{\"timestamp\":2,\"update_type\":\"message_removed\",\"message_id\":\"mid.1\"},"
+                + "{\"message\":{\"body\":[1,{}]},\"timestamp\":3,\"update_type\":\"message_created\"},"
+                + "{\"update_type\":\"bot_started\",\"chat_id\":4,\"user_id\":5,\"timestamp\":6},"
+                + "{\"timestamp\":7}"
+                + "],\"marker\":8}";
+
+        Set<String> types = new HashSet<>(Arrays.asList(Update.MESSAGE_REMOVED, Update.BOT_STARTED));
+        List<Update> received = new ArrayList<>();
+        Long marker = serializer.deserializeUpdates(json.getBytes(StandardCharsets.UTF_8),
+                new CollectingVisitor(received), types);
+
+        assertThat(marker, is(8L));
+        assertThat(received, is(Arrays.asList(new MessageRemovedUpdate("mid.1", 2L),
+                new BotStartedUpdate(4L, 5L, 6L))));
+    }
+
+    @Test
+    public void shouldDeserializeSingleUpdate() throws Exception {
+        Update update = new ChatTitleChangedUpdate(1L, 2L, "title", 3L);
+        byte[] data = serializer.serialize(update);
+        Set<String> types = Collections.singleton(Update.CHAT_TITLE_CHANGED);
+
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data), null), is(update));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data), types), is(update));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(data),
+                Collections.singleton(Update.MESSAGE_CREATED)), is(nullValue()));
+        assertThat(serializer.deserializeUpdate(new ByteArrayInputStream(new byte[0]), types), is(nullValue()));
+    }
+
+    private static class CollectingVisitor extends FailByDefaultUpdateVisitor {
+        private final List<Update> updates;
+
+        private CollectingVisitor(List<Update> updates) {
+            this.updates = updates;
+        }
+
+        @Override
+        public void visit(MessageRemovedUpdate model) {
+            updates.add(model);
+        }
+
+        @Override
+        public void visit(BotStartedUpdate model) {
+            updates.add(model);
+        }
+
+        @Override
+        public void visit(ChatTitleChangedUpdate model) {
+            updates.add(model);
+        }
     }
 
     private static class NotSerializableClass {
@@ -1,13 +1,23 @@
 package chat.tamtam.botapi.client.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.MultipartConfigElement;
 
 import org.apache.log4j.Level;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,27 +25,218 @@ import chat.tamtam.botapi.client.ClientResponse;
 import chat.tamtam.botapi.exceptions.TransportClientException;
 import chat.tamtam.botapi.server.TamTamServer;
 import chat.tamtam.botapi.server.TamTamService;
+import okhttp3.OkHttpClient;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static spark.Spark.get;
+import static spark.Spark.post;
 
 /**
  * @author alexandrchuprin
  */
 public class OkHttpTransportClientTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test(expected = TransportClientException.class)
-    public void shouldThrowException() throws Exception {
+    public void shouldThrowException() throws Throwable {
         OkHttpTransportClient client = new OkHttpTransportClient();
         InputStream inputStream = mock(InputStream.class);
         IOException fakeException = new IOException("fake exception");
         when(inputStream.read(any(), anyInt(), anyInt())).thenThrow(fakeException);
         doThrow(fakeException).when(inputStream).close();
 
-        client.post("http://invalidurl", "test.txt", inputStream);
+        try {
+            client.post("http://invalidurl", "test.txt", inputStream).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test(expected = TransportClientException.class)
+    public void shouldFailIfStreamFailsWhileUploading() throws Throwable {
+        String path = "/shouldFailIfStreamFailsWhileUploading";
+        post(path, (req, resp) -> {
+            req.raw().getInputStream().skip(Long.MAX_VALUE);
+            return "{}";
+        });
+
+        InputStream inputStream = new InputStream() {
+            private int bytesLeft = 1024 * 1024;
+
+            @Override
+            public int read() throws IOException {
+                if (bytesLeft-- == 0) {
+                    throw new IOException("fake exception");
+                }
+
+                return 0;
+            }
+        };
+
+        OkHttpTransportClient client = new OkHttpTransportClient();
+        try {
+            client.post(TamTamServer.ENDPOINT + path + "?access_token=" + TamTamService.ACCESS_TOKEN, "test.txt",
+                    inputStream).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void shouldStreamUpload() throws Exception {
+        String path = "/shouldStreamUpload";
+        post(path, (req, resp) -> {
+            long received = 0;
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            try (InputStream in = req.raw().getInputStream()) {
+                while ((n = in.read(buffer)) != -1) {
+                    received += n;
+                }
+            }
+
+            return String.valueOf(received);
+        });
+
+        // memory used by large uploads is measured by UploadBenchmark
+        long size = 4L * 1024 * 1024;
+        GeneratedInputStream inputStream = new GeneratedInputStream(size);
+        OkHttpTransportClient client = new OkHttpTransportClient();
+        ClientResponse response = client.post(
+                TamTamServer.ENDPOINT + path + "?access_token=" + TamTamService.ACCESS_TOKEN, "video.mp4", inputStream).get();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(Long.parseLong(response.getBodyAsString()), is(greaterThan(size)));
+        assertThat(inputStream.maxChunkSize, is(lessThanOrEqualTo(8192)));
+        assertThat(inputStream.closeCount, is(1));
+    }
+
+    @Test
+    public void shouldNotSendUploadStreamTwice() throws Exception {
+        String path = "/shouldNotSendUploadStreamTwice";
+        AtomicInteger requests = new AtomicInteger();
+        post(path, (req, resp) -> {
+            req.raw().getInputStream().skip(Long.MAX_VALUE);
+            if (requests.incrementAndGet() == 1) {
+                // OkHttp repeats request once on 408
+                resp.status(408);
+            }
+
+            return "{}";
+        });
+
+        GeneratedInputStream inputStream = new GeneratedInputStream(1024);
+        OkHttpTransportClient client = new OkHttpTransportClient();
+        try {
+            client.post(TamTamServer.ENDPOINT + path + "?access_token=" + TamTamService.ACCESS_TOKEN, "test.txt",
+                    inputStream).get(10, TimeUnit.SECONDS);
+            fail("Upload should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TransportClientException.class));
+        }
+
+        assertThat(requests.get(), is(1));
+        assertThat(inputStream.closeCount, is(1));
+    }
+
+    @Test
+    public void shouldUploadFile() throws Exception {
+        String path = "/shouldUploadFile";
+        File uploadDir = temporaryFolder.newFolder();
+        post(path, (req, resp) -> {
+            req.attribute("org.eclipse.jetty.multipartConfig", new MultipartConfigElement(uploadDir.toString()));
+            return String.valueOf(req.raw().getPart("v1").getSize());
+        });
+
+        File file = temporaryFolder.newFile("upload.bin");
+        byte[] content = new byte[1024 * 1024];
+        Arrays.fill(content, (byte) 'a');
+        Files.write(file.toPath(), content);
+
+        OkHttpTransportClient client = new OkHttpTransportClient();
+        ClientResponse response = client.post(
+                TamTamServer.ENDPOINT + path + "?access_token=" + TamTamService.ACCESS_TOKEN, file.getName(), file).get();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(Long.parseLong(response.getBodyAsString()), is(file.length()));
+    }
+
+    @Test
+    public void shouldCancelCall() throws Exception {
+        String path = "/shouldCancelCall";
+        CountDownLatch release = new CountDownLatch(1);
+        get(path, (req, resp) -> {
+            release.await(10, TimeUnit.SECONDS);
+            return "response";
+        });
+
+        OkHttpClient httpClient = new OkHttpClient();
+        OkHttpTransportClient client = new OkHttpTransportClient(httpClient);
+        try {
+            Future<ClientResponse> future = client.get(
+                    TamTamServer.ENDPOINT + path + "?access_token=" + TamTamService.ACCESS_TOKEN);
+
+            awaitRunningCalls(httpClient, 1);
+            assertTrue(future.cancel(true));
+            awaitRunningCalls(httpClient, 0);
+            assertTrue(future.isCancelled());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void awaitRunningCalls(OkHttpClient httpClient, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (httpClient.dispatcher().runningCallsCount() != count) {
+            assertTrue("Expected " + count + " running calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static class GeneratedInputStream extends InputStream {
+        private long bytesLeft;
+        private int maxChunkSize;
+        private volatile int closeCount;
+
+        private GeneratedInputStream(long size) {
+            this.bytesLeft = size;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (bytesLeft == 0) {
+                return -1;
+            }
+
+            maxChunkSize = Math.max(maxChunkSize, len);
+            int n = (int) Math.min(len, bytesLeft);
+            Arrays.fill(b, off, off + n, (byte) 'a');
+            bytesLeft -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
     }
 
     @Test(expected = TransportClientException.class)
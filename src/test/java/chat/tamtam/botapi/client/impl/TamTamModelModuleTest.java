@@ -0,0 +1,135 @@
+package chat.tamtam.botapi.client.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import chat.tamtam.botapi.model.Attachment;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageBody;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+import chat.tamtam.botapi.model.User;
+import chat.tamtam.botapi.server.TamTamService;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TamTamModelModuleTest {
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new TamTamModelModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ObjectMapper plainMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    public void shouldDeserializeWhenTypeGoesLast() throws Exception {
+        UpdateList updates = updateList();
+        String json = plainMapper.writeValueAsString(updates);
+        assertThat(mapper.readValue(json, UpdateList.class), is(updates));
+        assertThat(mapper.readValue(json, UpdateList.class), is(plainMapper.readValue(json, UpdateList.class)));
+    }
+
+    @Test
+    public void shouldDeserializeWhenTypeGoesFirst() throws Exception {
+        UpdateList updates = updateList();
+        JsonNode tree = plainMapper.valueToTree(updates);
+        moveTypeFirst(tree);
+        String json = plainMapper.writeValueAsString(tree);
+        assertThat(json.contains("{\"update_type\":\"message_created\""), is(true));
+        assertThat(mapper.readValue(json, UpdateList.class), is(updates));
+    }
+
+    @Test
+    public void shouldDeserializeWhenTypeInTheMiddle() throws Exception {
+        String json = "{\"chat_id\":1,\"update_type\":\"bot_started\",\"user_id\":2,\"timestamp\":3}";
+        Update update = mapper.readValue(json, Update.class);
+        assertThat(update, is(plainMapper.readValue(json, Update.class)));
+    }
+
+    @Test
+    public void shouldDeserializeUnknownTypeAsBaseClass() throws Exception {
+        String json = "{\"update_type\":\"unknown\",\"timestamp\":3,\"field\":{\"a\":1}}";
+        Update update = mapper.readValue(json, Update.class);
+        assertThat(update.getClass().equals(Update.class), is(true));
+        assertThat(update.getTimestamp(), is(3L));
+
+        Attachment attachment = mapper.readValue("{\"payload\":{},\"type\":\"unknown\"}", Attachment.class);
+        assertThat(attachment.getClass().equals(Attachment.class), is(true));
+    }
+
+    @Test
+    public void shouldDeserializeObjectWithoutTypeAsBaseClass() throws Exception {
+        Update update = mapper.readValue("{\"timestamp\":3}", Update.class);
+        assertThat(update.getClass().equals(Update.class), is(true));
+        assertThat(update.getTimestamp(), is(3L));
+
+        update = mapper.readValue("{\"update_type\":null,\"timestamp\":4}", Update.class);
+        assertThat(update.getClass().equals(Update.class), is(true));
+        assertThat(update.getTimestamp(), is(4L));
+    }
+
+    @Test
+    public void shouldDeserializeSubtypeDirectly() throws Exception {
+        MessageCreatedUpdate update = (MessageCreatedUpdate) updateList().getUpdates().get(0);
+        String json = plainMapper.writeValueAsString(update);
+        assertThat(mapper.readValue(json, MessageCreatedUpdate.class), is(update));
+        assertThat(mapper.readValue(json, Update.class), is(instanceOf(MessageCreatedUpdate.class)));
+    }
+
+    private static UpdateList updateList() {
+        MessageBody body = new MessageBody("mid.1", 1L, "text", Arrays.asList(
+                TamTamService.PHOTO_ATTACHMENT,
+                TamTamService.VIDEO_ATTACHMENT,
+                TamTamService.AUDIO_ATTACHMENT,
+                TamTamService.FILE_ATTACHMENT,
+                TamTamService.STICKER_ATTACHMENT,
+                TamTamService.CONTACT_ATTACHMENT,
+                TamTamService.INLINE_KEYBOARD_ATTACHMENT,
+                TamTamService.SHARE_ATTACHMENT,
+                TamTamService.LOCATION_ATTACHMENT));
+
+        Message message = new Message(new User(1L, "user", "username"), new Recipient(2L, ChatType.CHAT, null),
+                System.currentTimeMillis(), body);
+
+        return new UpdateList(Collections.singletonList(new MessageCreatedUpdate(message, 3L)), 4L);
+    }
+
+    private static void moveTypeFirst(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            for (String typeField : Arrays.asList("type", "update_type")) {
+                JsonNode type = object.get(typeField);
+                if (type != null && type.isTextual()) {
+                    ObjectNode copy = object.deepCopy();
+                    object.removeAll();
+                    object.set(typeField, type);
+                    Iterator<Map.Entry<String, JsonNode>> fields = copy.fields();
+                    while (fields.hasNext()) {
+                        Map.Entry<String, JsonNode> field = fields.next();
+                        if (!field.getKey().equals(typeField)) {
+                            object.set(field.getKey(), field.getValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        for (JsonNode child : node) {
+            moveTypeFirst(child);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.metrics;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import chat.tamtam.botapi.exceptions.TooManyRequestsException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ClientMetricsTest {
+    @Test
+    public void shouldCollectMetricsPerEndpoint() throws Exception {
+        ClientMetrics metrics = new ClientMetrics();
+        metrics.onRequest("POST /messages");
+        metrics.onRequest("POST /messages");
+        metrics.onRequest("GET /chats/{id}");
+
+        EndpointMetrics messages = metrics.get("POST /messages");
+        assertThat(messages.getRequestCount(), is(2L));
+        assertThat(messages.getInFlight(), is(2L));
+
+        metrics.onResponse("POST /messages", TimeUnit.MILLISECONDS.toNanos(10), 100, 200, 1000);
+        metrics.onResponse("POST /messages", TimeUnit.MILLISECONDS.toNanos(20), 50, 429, 70);
+        metrics.onError("POST /messages", new TooManyRequestsException("too many"));
+
+        assertThat(messages.getInFlight(), is(0L));
+        assertThat(messages.getRequestBytes(), is(150L));
+        assertThat(messages.getResponseBytes(), is(1070L));
+        assertThat(messages.getLatency().getCount(), is(2L));
+        assertThat(messages.getLatency().getMax(), is(20_000L));
+        assertThat(messages.getErrorCount(), is(1L));
+        assertThat(messages.getErrorCount(TooManyRequestsException.class), is(1L));
+        assertThat(messages.getErrorCount(RuntimeException.class), is(0L));
+        assertThat(messages.getErrorCounts(), is(Collections.singletonMap(TooManyRequestsException.class, 1L)));
+
+        assertThat(metrics.get("GET /chats/{id}").getInFlight(), is(1L));
+        assertThat(metrics.get("GET /me"), is(nullValue()));
+        assertThat(metrics.getEndpoints().size(), is(2));
+    }
+}
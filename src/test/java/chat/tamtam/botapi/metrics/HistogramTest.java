@@ -0,0 +1,79 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class HistogramTest {
+    @Test
+    public void shouldComputePercentiles() throws Exception {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getPercentile(99), is(0L));
+
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getCount(), is(10_000L));
+        assertThat(histogram.getMax(), is(10_000L));
+        assertThat(histogram.getMean(), is(5000.5));
+        assertThat(histogram.getPercentile(100), is(10_000L));
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long expected = (long) (percentile * 100);
+            assertThat(histogram.getPercentile(percentile), greaterThanOrEqualTo(expected));
+            assertThat(histogram.getPercentile(percentile), lessThanOrEqualTo(expected + expected / 32 + 1));
+        }
+    }
+
+    @Test
+    public void shouldMapEveryValueToBucketContainingIt() throws Exception {
+        long previous = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = Histogram.index(value);
+            assertThat(Histogram.upperBound(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(Histogram.upperBound(index - 1), lessThanOrEqualTo(value - 1));
+            }
+
+            assertThat(index >= previous, is(true));
+            previous = index;
+        }
+    }
+
+    @Test
+    public void shouldClampValues() throws Exception {
+        Histogram histogram = new Histogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertThat(histogram.getCount(), is(2L));
+        assertThat(histogram.getPercentile(50), is(0L));
+        assertThat(histogram.getMax(), is((1L << 40) - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPercentile() throws Exception {
+        new Histogram().getPercentile(0);
+    }
+}
@@ -20,12 +20,18 @@
 
 package chat.tamtam.botapi.queries;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Test;
 
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamClient;
+import chat.tamtam.botapi.client.TamTamTransportClient;
 import chat.tamtam.botapi.model.BotAddedToChatUpdate;
 import chat.tamtam.botapi.model.BotRemovedFromChatUpdate;
 import chat.tamtam.botapi.model.BotStartedUpdate;
@@ -41,10 +47,14 @@ import chat.tamtam.botapi.model.Update;
 import chat.tamtam.botapi.model.UpdateList;
 import chat.tamtam.botapi.model.UserAddedToChatUpdate;
 import chat.tamtam.botapi.model.UserRemovedFromChatUpdate;
+import chat.tamtam.botapi.server.TamTamService;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static spark.Spark.get;
 
 public class GetUpdatesQueryTest extends QueryTest {
@@ -158,4 +168,35 @@ public class GetUpdatesQueryTest extends QueryTest {
             });
         }
     }
+
+    @Test
+    public void shouldPassUpdatesToVisitor() throws Exception {
+        long now = System.currentTimeMillis();
+        List<Update> updates = Arrays.asList(
+                new BotStartedUpdate(ID_COUNTER.incrementAndGet(), ID_COUNTER.incrementAndGet(), now),
+                new MessageRemovedUpdate("mid." + ID_COUNTER.incrementAndGet(), now)
+        );
+
+        byte[] body = serializer.serialize(new UpdateList(updates, 42L));
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(200, body, Collections.emptyMap())));
+
+        TamTamClient client = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        List<Update> received = new ArrayList<>();
+        Long marker = new GetUpdatesQuery(client).execute(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                received.add(model);
+            }
+
+            @Override
+            public void visit(BotStartedUpdate model) {
+                received.add(model);
+            }
+        });
+
+        assertThat(marker, is(42L));
+        assertThat(received, is(updates));
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.queries;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PercentEncoderTest {
+    @Test
+    public void shouldReturnSafeValueAsIs() throws Exception {
+        String value = "-1234567890_abc.XYZ*";
+        assertThat(PercentEncoder.encode(value), is(sameInstance(value)));
+    }
+
+    @Test
+    public void shouldEncodeLikeURLEncoder() throws Exception {
+        String[] values = {"", " ", "a b+c", "q=1&r=2", "привет", "😀", "中文", "\u0000\n\u007f", "\ud83d", "x\udc00y"};
+        for (String value : values) {
+            assertEncoded(value);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            char[] chars = new char[random.nextInt(10)];
+            for (int j = 0; j < chars.length; j++) {
+                // mostly ASCII with some multibyte chars and surrogates
+                chars[j] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0x10000));
+            }
+
+            assertEncoded(new String(chars));
+        }
+    }
+
+    private static void assertEncoded(String value) throws Exception {
+        String expected = URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        assertThat(PercentEncoder.encode(value), is(expected));
+        StringBuilder sb = new StringBuilder("prefix");
+        PercentEncoder.append(sb, value);
+        assertThat(sb.toString(), is("prefix" + expected));
+    }
+}
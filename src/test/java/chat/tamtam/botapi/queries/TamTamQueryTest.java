@@ -1,19 +1,35 @@
 package chat.tamtam.botapi.queries;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jetbrains.annotations.NotNull;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.RateLimiter;
+import chat.tamtam.botapi.client.RequestCoalescer;
+import chat.tamtam.botapi.client.ResponseCache;
+import chat.tamtam.botapi.client.RetryPolicy;
 import chat.tamtam.botapi.client.TamTamClient;
 import chat.tamtam.botapi.client.TamTamSerializer;
 import chat.tamtam.botapi.client.TamTamTransportClient;
@@ -21,20 +37,39 @@ import chat.tamtam.botapi.exceptions.APIException;
 import chat.tamtam.botapi.exceptions.AttachmentNotReadyException;
 import chat.tamtam.botapi.exceptions.ChatAccessForbiddenException;
 import chat.tamtam.botapi.exceptions.ClientException;
+import chat.tamtam.botapi.exceptions.RateLimitExceededException;
+import chat.tamtam.botapi.exceptions.RequestTimeoutException;
 import chat.tamtam.botapi.exceptions.RequiredParameterMissingException;
 import chat.tamtam.botapi.exceptions.SendMessageForbiddenException;
 import chat.tamtam.botapi.exceptions.ServiceNotAvailableException;
 import chat.tamtam.botapi.exceptions.TooManyRequestsException;
 import chat.tamtam.botapi.exceptions.TransportClientException;
+import chat.tamtam.botapi.metrics.ClientMetrics;
+import chat.tamtam.botapi.metrics.EndpointMetrics;
+import chat.tamtam.botapi.model.Chat;
+import chat.tamtam.botapi.model.ChatPatch;
+import chat.tamtam.botapi.model.ChatStatus;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.NewMessageBody;
+import chat.tamtam.botapi.model.SendMessageResult;
 import chat.tamtam.botapi.model.User;
+import chat.tamtam.botapi.queries.upload.TamTamUploadFileQuery;
 import chat.tamtam.botapi.server.TamTamService;
 import okhttp3.HttpUrl;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static spark.Spark.get;
 import static spark.Spark.halt;
@@ -43,6 +78,9 @@ import static spark.Spark.halt;
  * @author alexandrchuprin
  */
 public class TamTamQueryTest extends QueryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private static final chat.tamtam.botapi.model.Error ERROR
             = new chat.tamtam.botapi.model.Error("error.code", "error");
 
@@ -227,4 +265,551 @@ public class TamTamQueryTest extends QueryTest {
         new QueryParam<>("param", "value", query);
         query.buildURL();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDeserializeOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "test-callback"));
+        try {
+            TamTamQuery<User> query = new TamTamQuery<>(client, "/ok", User.class, TamTamQuery.Method.GET);
+            String thread = query.enqueueAsync(executor)
+                    .thenApply(user -> Thread.currentThread().getName())
+                    .get(5, TimeUnit.SECONDS);
+
+            assertThat(thread, is("test-callback"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailAsyncWithMappedException() throws Exception {
+        TamTamQuery<Void> query = new TamTamQuery<>(client, "/accessdenied", Void.class, TamTamQuery.Method.GET);
+        assertThat(asyncFailure(query.enqueueAsync()), instanceOf(ChatAccessForbiddenException.class));
+    }
+
+    @Test
+    public void shouldFailAsyncIfParamIsMissing() throws Exception {
+        TamTamQuery<User> query = new TamTamQuery<>(client, "/me", User.class, TamTamQuery.Method.GET);
+        new QueryParam<String>("param", query).required();
+        assertThat(asyncFailure(query.enqueueAsync()), instanceOf(RequiredParameterMissingException.class));
+    }
+
+    @Test
+    public void shouldWrapTransportExceptionAsync() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        CompletableFuture<ClientResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new TransportClientException("test exception"));
+        when(transport.get(anyString())).thenReturn(failed);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET);
+        Throwable failure = asyncFailure(query.enqueueAsync());
+        assertThat(failure, instanceOf(ClientException.class));
+        assertThat(failure.getCause(), instanceOf(TransportClientException.class));
+    }
+
+    @Test
+    public void shouldCancelRequest() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        when(transport.get(anyString())).thenReturn(pending);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        CompletableFuture<User> future = new TamTamQuery<>(clientMock, "/me", User.class,
+                TamTamQuery.Method.GET).enqueueAsync();
+
+        future.cancel(true);
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void shouldFanOutWithoutThreadPerRequest() throws Exception {
+        List<CompletableFuture<ClientResponse>> responses = Collections.synchronizedList(new ArrayList<>());
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenAnswer(invocation -> {
+            CompletableFuture<ClientResponse> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int requests = 10_000;
+            List<CompletableFuture<User>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                        .enqueueAsync(executor));
+            }
+
+            byte[] body = serializer.serialize(new User(1L, "name", null));
+            for (CompletableFuture<ClientResponse> response : responses) {
+                response.complete(new ClientResponse(200, body, Collections.emptyMap()));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            assertThat(futures.get(requests - 1).get().getUserId(), is(1L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCancelCallWhenDeadlineExpires() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        when(transport.get(anyString())).thenReturn(pending);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                .deadline(50, TimeUnit.MILLISECONDS);
+
+        try {
+            query.execute();
+            fail("Query should fail");
+        } catch (RequestTimeoutException e) {
+            assertTrue(pending.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void shouldFailAsyncWhenDeadlineExpires() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(new CompletableFuture<>());
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                .deadline(50, TimeUnit.MILLISECONDS);
+
+        assertThat(asyncFailure(query.enqueueAsync()), instanceOf(RequestTimeoutException.class));
+    }
+
+    @Test
+    public void shouldCancelPlainFutureWhenDeadlineExpires() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        FutureTask<ClientResponse> pending = new FutureTask<>(() -> null);
+        when(transport.get(anyString())).thenReturn(pending);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                .deadline(50, TimeUnit.MILLISECONDS);
+
+        try {
+            query.execute();
+            fail("Query should fail");
+        } catch (RequestTimeoutException e) {
+            assertTrue(pending.isCancelled());
+        }
+    }
+
+    @Test
+    public void shouldSlowDownOnTooManyRequests() throws Exception {
+        TamTamClient limitedClient = new TamTamClient(TamTamService.ACCESS_TOKEN, client.getTransport(), serializer);
+        RateLimiter rateLimiter = new RateLimiter(100, 100);
+        limitedClient.setRateLimiter(rateLimiter);
+
+        try {
+            new TamTamQuery<>(limitedClient, "/toomanyrequests", Void.class, TamTamQuery.Method.GET).execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            assertThat(rateLimiter.getRate(), is(50.0));
+        }
+
+        new TamTamQuery<>(limitedClient, "/ok", User.class, TamTamQuery.Method.GET).execute();
+        assertThat(rateLimiter.getRate(), is(51.0));
+    }
+
+    @Test
+    public void shouldFailFastBeforeSending() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        RateLimiter rateLimiter = new RateLimiter(100, 1).mode(RateLimiter.Mode.FAIL_FAST);
+        rateLimiter.acquire(1L, null);
+        clientMock.setRateLimiter(rateLimiter);
+
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET);
+        new QueryParam<>("chat_id", 1L, query);
+        try {
+            query.execute();
+            fail("Query should fail");
+        } catch (RateLimitExceededException e) {
+            verify(transport, never()).get(anyString());
+        }
+
+        assertThat(asyncFailure(query.enqueueAsync()), instanceOf(RateLimitExceededException.class));
+    }
+
+    @Test
+    public void shouldDelayThrottledAsyncQueryWithoutBlocking() throws Exception {
+        TamTamClient limitedClient = new TamTamClient(TamTamService.ACCESS_TOKEN, client.getTransport(), serializer);
+        RateLimiter rateLimiter = new RateLimiter(100, 5).recipientBurst(1);
+        rateLimiter.acquire(1L, null);
+        limitedClient.setRateLimiter(rateLimiter);
+
+        TamTamQuery<User> query = new TamTamQuery<>(limitedClient, "/ok", User.class, TamTamQuery.Method.GET);
+        new QueryParam<>("chat_id", 1L, query);
+        long startedAt = System.nanoTime();
+        CompletableFuture<User> future = query.enqueueAsync();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 150, is(true));
+        future.get(5, TimeUnit.SECONDS);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) >= 150, is(true));
+        assertThat(rateLimiter.getThrottledCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRetryTooManyRequests() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        byte[] error = serializer.serialize(TOO_MANY_REQUESTS);
+        byte[] user = serializer.serialize(new User(1L, "name", null));
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())),
+                CompletableFuture.completedFuture(new ClientResponse(200, user, Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS);
+        clientMock.setRetryPolicy(retryPolicy);
+
+        User result = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET).execute();
+        assertThat(result.getUserId(), is(1L));
+        assertThat(retryPolicy.getRetryCount("GET /me"), is(1L));
+    }
+
+    @Test
+    public void shouldRetryIdempotentQueryOnTransportError() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        CompletableFuture<ClientResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new TransportClientException("test exception"));
+        byte[] user = serializer.serialize(new User(1L, "name", null));
+        when(transport.get(anyString())).thenReturn(failed,
+                CompletableFuture.completedFuture(new ClientResponse(200, user, Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        TamTamQuery<User> query = new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                .retryPolicy(new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS));
+
+        assertThat(query.enqueueAsync().get(5, TimeUnit.SECONDS).getUserId(), is(1L));
+    }
+
+    @Test
+    public void shouldNotRetryNonIdempotentQueryOnTransportError() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenThrow(new TransportClientException("test exception"));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRetryPolicy(new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS));
+        try {
+            new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.POST).execute();
+            fail("Query should fail");
+        } catch (ClientException e) {
+            assertThat(e.getCause(), instanceOf(TransportClientException.class));
+        }
+
+        verify(transport, times(1)).post(anyString(), any());
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxRetries() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        byte[] error = serializer.serialize(TOO_MANY_REQUESTS);
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRetryPolicy(new RetryPolicy(2, 1, 10, TimeUnit.MILLISECONDS));
+        try {
+            new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET).execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            verify(transport, times(3)).get(anyString());
+        }
+    }
+
+    @Test
+    public void shouldOptOutOfClientRetriesAndRateLimit() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        byte[] error = serializer.serialize(TOO_MANY_REQUESTS);
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRetryPolicy(new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS));
+        RateLimiter rateLimiter = new RateLimiter(1, 1).mode(RateLimiter.Mode.FAIL_FAST);
+        rateLimiter.acquire(null, null);
+        clientMock.setRateLimiter(rateLimiter);
+        try {
+            new TamTamQuery<>(clientMock, "/me", User.class, TamTamQuery.Method.GET)
+                    .withoutRetries()
+                    .withoutRateLimit()
+                    .execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            verify(transport, times(1)).get(anyString());
+        }
+
+        assertThat(rateLimiter.getRejectedCount(), is(0L));
+        assertThat(rateLimiter.getTooManyRequestsCount(), is(0L));
+    }
+
+    @Test
+    public void shouldRetryFileUploadButNotStreamUpload() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        byte[] error = serializer.serialize(TOO_MANY_REQUESTS);
+        byte[] uploaded = "{}".getBytes();
+        when(transport.post(anyString(), anyString(), any(InputStream.class))).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())));
+        when(transport.post(anyString(), anyString(), any(File.class))).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())),
+                CompletableFuture.completedFuture(new ClientResponse(200, uploaded, Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRetryPolicy(new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS));
+        try {
+            new TamTamUploadFileQuery(clientMock, "http://upload", "file.txt",
+                    new ByteArrayInputStream(new byte[10])).execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            verify(transport, times(1)).post(anyString(), anyString(), any(InputStream.class));
+        }
+
+        File file = temporaryFolder.newFile("file.txt");
+        new TamTamUploadFileQuery(clientMock, "http://upload", file).execute();
+        verify(transport, times(2)).post(anyString(), anyString(), any(File.class));
+    }
+
+    @Test
+    public void shouldNameEndpointByTemplate() throws Exception {
+        assertThat(new TamTamQuery<>(client, "/chats/-123/members?x=1", User.class, TamTamQuery.Method.GET)
+                .getEndpointName(), is("GET /chats/{id}/members"));
+        assertThat(new TamTamQuery<>(client, "/me", User.class, TamTamQuery.Method.GET).getEndpointName(),
+                is("GET /me"));
+    }
+
+    @Test
+    public void shouldCoalesceIdenticalGets() throws Exception {
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        when(transport.get(anyString())).thenReturn(pending);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRequestCoalescer(new RequestCoalescer());
+        CompletableFuture<User> first = new TamTamQuery<>(clientMock, "/me", User.class,
+                TamTamQuery.Method.GET).enqueueAsync();
+        CompletableFuture<User> second = new TamTamQuery<>(clientMock, "/me", User.class,
+                TamTamQuery.Method.GET).enqueueAsync();
+
+        pending.complete(new ClientResponse(200, serializer.serialize(new User(1L, "name", null)),
+                Collections.emptyMap()));
+
+        verify(transport, times(1)).get(anyString());
+        assertThat(first.get(5, TimeUnit.SECONDS), is(second.get(5, TimeUnit.SECONDS)));
+        // every caller gets its own copy
+        assertThat(first.get(), is(not(sameInstance(second.get()))));
+    }
+
+    @Test
+    public void shouldServeCachedResponse() throws Exception {
+        Chat chat = new Chat(1L, ChatType.CHAT, ChatStatus.ACTIVE, "title", null, 1L, 2, false, null);
+        ClientResponse response = new ClientResponse(200, serializer.serialize(chat), Collections.emptyMap());
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(CompletableFuture.completedFuture(response));
+        when(transport.patch(anyString(), any())).thenReturn(CompletableFuture.completedFuture(response));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        ResponseCache cache = new ResponseCache(10);
+        clientMock.setResponseCache(cache);
+
+        assertThat(new GetChatQuery(clientMock, 1L).execute(), is(chat));
+        assertThat(new GetChatQuery(clientMock, 1L).enqueueAsync().get(5, TimeUnit.SECONDS), is(chat));
+        assertThat(new GetChatQuery(clientMock, 1L).enqueue().get(5, TimeUnit.SECONDS), is(chat));
+        verify(transport, times(1)).get(anyString());
+        assertThat(cache.getHitCount(), is(2L));
+
+        new EditChatQuery(clientMock, new ChatPatch().title("title"), 1L).execute();
+        new GetChatQuery(clientMock, 1L).execute();
+        verify(transport, times(2)).get(anyString());
+    }
+
+    @Test
+    public void shouldNotGiveRateLimiterFeedbackOnCachedResponse() throws Exception {
+        Chat chat = new Chat(1L, ChatType.CHAT, ChatStatus.ACTIVE, "title", null, 1L, 2, false, null);
+        byte[] error = serializer.serialize(TOO_MANY_REQUESTS);
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(429, error, Collections.emptyMap())),
+                CompletableFuture.completedFuture(new ClientResponse(200, serializer.serialize(chat),
+                        Collections.emptyMap())));
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setResponseCache(new ResponseCache(10));
+        RateLimiter rateLimiter = new RateLimiter(100, 100);
+        clientMock.setRateLimiter(rateLimiter);
+        try {
+            new GetChatQuery(clientMock, 1L).execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            assertThat(rateLimiter.getRate(), is(50.0));
+        }
+
+        assertThat(new GetChatQuery(clientMock, 1L).execute(), is(chat));
+        assertThat(rateLimiter.getRate(), is(51.0));
+
+        assertThat(new GetChatQuery(clientMock, 1L).execute(), is(chat));
+        assertThat(new GetChatQuery(clientMock, 1L).enqueueAsync().get(5, TimeUnit.SECONDS), is(chat));
+        assertThat(new GetChatQuery(clientMock, 1L).enqueue().get(5, TimeUnit.SECONDS), is(chat));
+        verify(transport, times(2)).get(anyString());
+        assertThat(rateLimiter.getRate(), is(51.0));
+    }
+
+    @Test
+    public void shouldReuseQueryWithAnotherBody() throws Exception {
+        List<String> urls = new ArrayList<>();
+        List<NewMessageBody> bodies = new ArrayList<>();
+        ClientResponse response = new ClientResponse(200, "{}".getBytes(), Collections.emptyMap());
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenAnswer(invocation -> {
+            urls.add((String) invocation.getArguments()[0]);
+            bodies.add(serializer.deserialize((byte[]) invocation.getArguments()[1], NewMessageBody.class));
+            return CompletableFuture.completedFuture(response);
+        });
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        NewMessageBody first = new NewMessageBody("first", null, null);
+        NewMessageBody second = new NewMessageBody("second", null, null);
+        SendMessageQuery query = new SendMessageQuery(clientMock, first).chatId(1L);
+        query.execute();
+        query.body(second).chatId(null).userId(2L).execute();
+
+        assertThat(bodies.get(0), is(first));
+        assertThat(bodies.get(1), is(second));
+        assertThat(HttpUrl.parse(urls.get(0)).queryParameter("chat_id"), is("1"));
+        assertThat(HttpUrl.parse(urls.get(1)).queryParameter("chat_id"), is((String) null));
+        assertThat(HttpUrl.parse(urls.get(1)).queryParameter("user_id"), is("2"));
+    }
+
+    @Test
+    public void shouldRetryRequestCapturedBeforeRebinding() throws Exception {
+        List<String> urls = new ArrayList<>();
+        List<NewMessageBody> bodies = new ArrayList<>();
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        ClientResponse response = new ClientResponse(200, "{}".getBytes(), Collections.emptyMap());
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenAnswer(invocation -> {
+            urls.add((String) invocation.getArguments()[0]);
+            bodies.add(serializer.deserialize((byte[]) invocation.getArguments()[1], NewMessageBody.class));
+            return urls.size() == 1 ? pending : CompletableFuture.completedFuture(response);
+        });
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        clientMock.setRetryPolicy(new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS));
+        NewMessageBody first = new NewMessageBody("first", null, null);
+        SendMessageQuery query = new SendMessageQuery(clientMock, first).chatId(1L);
+        CompletableFuture<SendMessageResult> result = query.enqueueAsync();
+        query.body(new NewMessageBody("second", null, null)).chatId(2L);
+        pending.complete(new ClientResponse(429, serializer.serialize(TOO_MANY_REQUESTS), Collections.emptyMap()));
+        result.get(5, TimeUnit.SECONDS);
+
+        assertThat(bodies.size(), is(2));
+        assertThat(bodies.get(1), is(first));
+        assertThat(urls.get(1), is(urls.get(0)));
+        assertThat(HttpUrl.parse(urls.get(1)).queryParameter("chat_id"), is("1"));
+    }
+
+    @Test
+    public void shouldSendSerializedQueryWithModelBody() throws Exception {
+        List<NewMessageBody> bodies = new ArrayList<>();
+        ClientResponse response = new ClientResponse(200, "{}".getBytes(), Collections.emptyMap());
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenAnswer(invocation -> {
+            bodies.add(serializer.deserialize((byte[]) invocation.getArguments()[1], NewMessageBody.class));
+            return CompletableFuture.completedFuture(response);
+        });
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        NewMessageBody first = new NewMessageBody("first", null, null);
+        NewMessageBody second = new NewMessageBody("second", null, null);
+        SendMessageQuery query = new SendSerializedMessageQuery(clientMock, serializer.serialize(first)).chatId(1L);
+        query.execute();
+        query.body(second).execute();
+
+        assertThat(bodies.get(0), is(first));
+        assertThat(bodies.get(1), is(second));
+    }
+
+    @Test
+    public void shouldRecordMetrics() throws Exception {
+        Chat chat = new Chat(1L, ChatType.CHAT, ChatStatus.ACTIVE, "title", null, 1L, 2, false, null);
+        byte[] chatBody = serializer.serialize(chat);
+        byte[] errorBody = "{\"code\":\"too.many.requests\",\"message\":\"too many\"}".getBytes();
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ClientResponse(200, chatBody, Collections.emptyMap())),
+                CompletableFuture.completedFuture(new ClientResponse(429, errorBody, Collections.emptyMap())));
+        CompletableFuture<ClientResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new TransportClientException("test exception"));
+        when(transport.patch(anyString(), any())).thenReturn(failed);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        ClientMetrics metrics = new ClientMetrics();
+        clientMock.setMetrics(metrics);
+
+        assertThat(new GetChatQuery(clientMock, 1L).execute(), is(chat));
+        try {
+            new GetChatQuery(clientMock, 2L).execute();
+            fail("Query should fail");
+        } catch (TooManyRequestsException e) {
+            // expected
+        }
+
+        try {
+            new EditChatQuery(clientMock, new ChatPatch().title("title"), 1L).execute();
+            fail("Query should fail");
+        } catch (ClientException e) {
+            // expected
+        }
+
+        EndpointMetrics getChat = metrics.get("GET /chats/{id}");
+        assertThat(getChat.getRequestCount(), is(2L));
+        assertThat(getChat.getInFlight(), is(0L));
+        assertThat(getChat.getResponseBytes(), is((long) chatBody.length + errorBody.length));
+        assertThat(getChat.getLatency().getCount(), is(2L));
+        assertThat(getChat.getErrorCount(TooManyRequestsException.class), is(1L));
+
+        EndpointMetrics editChat = metrics.get("PATCH /chats/{id}");
+        assertThat(editChat.getRequestCount(), is(1L));
+        assertThat(editChat.getRequestBytes(), is((long) serializer.serialize(new ChatPatch().title("title")).length));
+        assertThat(editChat.getErrorCount(TransportClientException.class), is(1L));
+    }
+
+    @Test
+    public void shouldRecordRequestSizeOfEachOverlappingExecution() throws Exception {
+        CompletableFuture<ClientResponse> pending = new CompletableFuture<>();
+        TamTamTransportClient transport = mock(TamTamTransportClient.class);
+        when(transport.post(anyString(), any())).thenReturn(pending);
+
+        TamTamClient clientMock = new TamTamClient(TamTamService.ACCESS_TOKEN, transport, serializer);
+        ClientMetrics metrics = new ClientMetrics();
+        clientMock.setMetrics(metrics);
+        NewMessageBody first = new NewMessageBody("first", null, null);
+        NewMessageBody second = new NewMessageBody("second message", null, null);
+        SendMessageQuery query = new SendMessageQuery(clientMock, first).chatId(1L);
+        CompletableFuture<SendMessageResult> firstResult = query.enqueueAsync();
+        CompletableFuture<SendMessageResult> secondResult = query.body(second).enqueueAsync();
+        pending.complete(new ClientResponse(200, "{}".getBytes(), Collections.emptyMap()));
+        firstResult.get(5, TimeUnit.SECONDS);
+        secondResult.get(5, TimeUnit.SECONDS);
+
+        assertThat(metrics.get("POST /messages").getRequestBytes(),
+                is((long) serializer.serialize(first).length + serializer.serialize(second).length));
+    }
+
+    private static Throwable asyncFailure(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+
+        fail("Future should fail");
+        return null;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.updates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatType;
+import chat.tamtam.botapi.model.FailByDefaultUpdateVisitor;
+import chat.tamtam.botapi.model.Message;
+import chat.tamtam.botapi.model.MessageCreatedUpdate;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Recipient;
+import chat.tamtam.botapi.model.Update;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateDispatcherTest {
+    private UpdateDispatcher dispatcher;
+
+    @After
+    public void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepOrderWithinChat() throws Exception {
+        int chats = 20;
+        int updatesPerChat = 50;
+        Map<Long, List<Long>> received = new ConcurrentHashMap<>();
+        CountDownLatch handled = new CountDownLatch(chats * updatesPerChat);
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                received.computeIfAbsent(model.getChatId(), k -> new CopyOnWriteArrayList<>()).add(model.getUserId());
+                handled.countDown();
+            }
+        }, 4, 16);
+
+        dispatcher.start();
+        for (long seq = 0; seq < updatesPerChat; seq++) {
+            for (long chatId = 0; chatId < chats; chatId++) {
+                dispatcher.visit(new BotStartedUpdate(chatId, seq, System.currentTimeMillis()));
+            }
+        }
+
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        assertThat(received.size(), is(chats));
+        for (List<Long> sequence : received.values()) {
+            for (int i = 0; i < sequence.size(); i++) {
+                assertThat(sequence.get(i), is((long) i));
+            }
+        }
+
+        assertThat(dispatcher.getHandledCount(), is((long) chats * updatesPerChat));
+        // visitor waits for free space by default
+        assertThat(dispatcher.getRejectedCount(), is(0L));
+    }
+
+    @Test
+    public void shouldHandleChatsInParallel() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherChatHandled = new CountDownLatch(1);
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                if (model.getChatId() == 1L) {
+                    await(release);
+                } else {
+                    otherChatHandled.countDown();
+                }
+            }
+        }, 2, 16);
+
+        dispatcher.start();
+        dispatcher.dispatch(new BotStartedUpdate(1L, 1L, 1L));
+        dispatcher.dispatch(new BotStartedUpdate(2L, 1L, 1L));
+        assertTrue(otherChatHandled.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void shouldNotLetHotChatStarveOthers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(7);
+        List<Long> order = new CopyOnWriteArrayList<>();
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                started.countDown();
+                await(release);
+                order.add(model.getChatId());
+                handled.countDown();
+            }
+        }, 1, 16);
+
+        dispatcher.start();
+        dispatcher.dispatch(new BotStartedUpdate(1L, 1L, 1L));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(new BotStartedUpdate(1L, 1L, 1L));
+        }
+
+        dispatcher.dispatch(new BotStartedUpdate(2L, 1L, 1L));
+        release.countDown();
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        assertThat(order.indexOf(2L), is(2));
+    }
+
+    @Test
+    public void shouldReportQueueDepthAndRejectWhenFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                started.countDown();
+                await(release);
+            }
+        }, 1, 2);
+
+        dispatcher.start();
+        assertTrue(dispatcher.tryDispatch(new BotStartedUpdate(1L, 1L, 1L)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.tryDispatch(new BotStartedUpdate(1L, 1L, 1L)));
+        assertTrue(dispatcher.tryDispatch(new BotStartedUpdate(2L, 1L, 1L)));
+        assertThat(dispatcher.tryDispatch(new BotStartedUpdate(3L, 1L, 1L)), is(false));
+        assertThat(dispatcher.getQueueDepth(0), is(2));
+        assertThat(dispatcher.getQueueDepths()[0], is(2));
+
+        release.countDown();
+        dispatcher.close();
+        assertThat(dispatcher.getQueueDepth(0), is(0));
+        assertThat(dispatcher.getHandledCount(), is(3L));
+    }
+
+    @Test
+    public void shouldRejectUpdatesOfChatThatIsBehindWithoutBlocking() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherChatHandled = new CountDownLatch(1);
+        List<Update> rejected = new CopyOnWriteArrayList<>();
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                if (model.getChatId() == 1L) {
+                    started.countDown();
+                    await(release);
+                } else {
+                    otherChatHandled.countDown();
+                }
+            }
+        }, 1, 16).chatCapacity(2).rejectionHandler(rejected::add);
+
+        dispatcher.start();
+        dispatcher.visit(new BotStartedUpdate(1L, 1L, 1L));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            dispatcher.visit(new BotStartedUpdate(1L, 1L, 1L));
+        }
+
+        dispatcher.visit(new BotStartedUpdate(2L, 1L, 1L));
+        assertThat(rejected.size(), is(1));
+        assertThat(dispatcher.getRejectedCount(), is(1L));
+        assertThat(dispatcher.getQueueDepth(0), is(3));
+
+        release.countDown();
+        assertTrue(otherChatHandled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldKeepInterruptStatusOnClose() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                started.countDown();
+                await(release);
+            }
+        }, 1, 1);
+
+        dispatcher.start();
+        dispatcher.dispatch(new BotStartedUpdate(1L, 1L, 1L));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.currentThread().interrupt();
+        dispatcher.close();
+        assertTrue(Thread.interrupted());
+
+        release.countDown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAcceptUpdatesAfterStop() throws Exception {
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor(), 1, 1);
+        dispatcher.start();
+        dispatcher.stop();
+        dispatcher.dispatch(new BotStartedUpdate(1L, 1L, 1L));
+    }
+
+    @Test
+    public void shouldExtractChatId() throws Exception {
+        List<Update> updates = new ArrayList<>();
+        updates.add(new MessageCreatedUpdate(message(new Recipient(10L, ChatType.CHAT, null)), 1L));
+        updates.add(new MessageCreatedUpdate(message(new Recipient(null, ChatType.DIALOG, 20L)), 1L));
+        updates.add(new BotStartedUpdate(30L, 1L, 1L));
+        updates.add(new MessageRemovedUpdate("mid.1", 1L));
+
+        assertThat(UpdateDispatcher.getChatId(updates.get(0)), is(10L));
+        assertThat(UpdateDispatcher.getChatId(updates.get(1)), is(20L));
+        assertThat(UpdateDispatcher.getChatId(updates.get(2)), is(30L));
+        assertThat(UpdateDispatcher.getChatId(updates.get(3)), is(nullValue()));
+    }
+
+    private static Message message(Recipient recipient) {
+        return new Message(null, recipient, System.currentTimeMillis(), null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
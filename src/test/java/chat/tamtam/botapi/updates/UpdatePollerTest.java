@@ -0,0 +1,283 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.updates;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.tamtam.botapi.TamTamBotAPI;
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.TamTamTransportClient;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.FailByDefaultUpdateVisitor;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.model.UpdateList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UpdatePollerTest {
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private final List<String> urls = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<ClientResponse>> responses = new CopyOnWriteArrayList<>();
+    private TamTamTransportClient transport;
+    private TamTamBotAPI api;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(TamTamTransportClient.class);
+        when(transport.get(anyString())).thenAnswer(invocation -> {
+            urls.add((String) invocation.getArguments()[0]);
+            CompletableFuture<ClientResponse> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+
+        api = new TamTamBotAPI("token", transport, serializer);
+    }
+
+    @Test
+    public void shouldHandleUpdatesInOrderAndMoveMarker() throws Exception {
+        List<Update> batch1 = Arrays.asList(new BotStartedUpdate(1L, 2L, 3L), new MessageRemovedUpdate("mid.1", 4L));
+        List<Update> batch2 = Collections.singletonList(new MessageRemovedUpdate("mid.2", 5L));
+        List<Update> received = new CopyOnWriteArrayList<>();
+        CountDownLatch handled = new CountDownLatch(3);
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                received.add(model);
+                handled.countDown();
+            }
+
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                received.add(model);
+                handled.countDown();
+            }
+        }).limit(10).timeout(5);
+
+        poller.start();
+        respond(0, new UpdateList(batch1, 10L));
+        respond(1, new UpdateList(batch2, 20L));
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        awaitPolls(3);
+        poller.close();
+
+        List<Update> expected = new ArrayList<>(batch1);
+        expected.addAll(batch2);
+        assertThat(received, is(expected));
+        assertFalse(urls.get(0).contains("marker"));
+        assertTrue(urls.get(0).contains("limit=10"));
+        assertTrue(urls.get(0).contains("timeout=5"));
+        assertTrue(urls.get(1).contains("marker=10"));
+        assertTrue(urls.get(2).contains("marker=20"));
+        assertThat(poller.getMarker(), is(20L));
+        assertThat(poller.getUpdateCount(), is(3L));
+        assertTrue(responses.get(2).isCancelled());
+        assertThat(poller.isRunning(), is(false));
+    }
+
+    @Test
+    public void shouldPollWhileHandlerIsBusy() throws Exception {
+        CountDownLatch handlerStarted = new CountDownLatch(1);
+        CountDownLatch releaseHandler = new CountDownLatch(1);
+        List<Update> received = new CopyOnWriteArrayList<>();
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                handlerStarted.countDown();
+                try {
+                    releaseHandler.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                received.add(model);
+            }
+        });
+
+        poller.start();
+        respond(0, new UpdateList(Collections.singletonList(new MessageRemovedUpdate("mid.1", 1L)), 1L));
+        assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+        respond(1, new UpdateList(Collections.singletonList(new MessageRemovedUpdate("mid.2", 2L)), 2L));
+        // second batch is waiting for handler, but next poll is already sent
+        awaitPolls(3);
+        assertThat(received.size(), is(0));
+
+        poller.stop();
+        releaseHandler.countDown();
+        assertTrue(poller.awaitTermination(5, TimeUnit.SECONDS));
+        assertThat(received.size(), is(2));
+    }
+
+    @Test
+    public void shouldRetryAfterError() throws Exception {
+        CountDownLatch handled = new CountDownLatch(1);
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                handled.countDown();
+            }
+        }).errorDelay(1, TimeUnit.MILLISECONDS).marker(5L);
+
+        poller.start();
+        awaitPolls(1);
+        responses.get(0).completeExceptionally(new RuntimeException("test exception"));
+        respond(1, new UpdateList(Collections.singletonList(new MessageRemovedUpdate("mid.1", 1L)), 6L));
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        poller.close();
+
+        assertTrue(urls.get(1).contains("marker=5"));
+        assertThat(poller.getPollErrorCount(), is(1L));
+        assertThat(poller.getMarker(), is(6L));
+    }
+
+    @Test
+    public void shouldContinueAfterHandlerFailure() throws Exception {
+        CountDownLatch handled = new CountDownLatch(1);
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                throw new IllegalStateException("test exception");
+            }
+
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                handled.countDown();
+            }
+        });
+
+        poller.start();
+        respond(0, new UpdateList(Arrays.asList(new BotStartedUpdate(1L, 2L, 3L),
+                new MessageRemovedUpdate("mid.1", 4L)), 1L));
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        poller.close();
+
+        assertThat(poller.getHandlerErrorCount(), is(1L));
+    }
+
+    @Test
+    public void shouldHandleBatchReceivedBeforeStop() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Update> received = new CopyOnWriteArrayList<>();
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                received.add(model);
+            }
+        });
+
+        poller.start();
+        for (int i = 0; i < 3; i++) {
+            respond(i, new UpdateList(Collections.singletonList(new MessageRemovedUpdate("mid." + i, 1L)),
+                    (long) i + 1));
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // first batch is handled, second waits in queue and polling thread waits to queue the third one
+        poller.stop();
+        release.countDown();
+        assertTrue(poller.awaitTermination(5, TimeUnit.SECONDS));
+        assertThat(received.size(), is(3));
+        assertThat(poller.getMarker(), is(3L));
+    }
+
+    @Test
+    public void shouldKeepInterruptStatusOnClose() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        poller.start();
+        respond(0, new UpdateList(Collections.singletonList(new MessageRemovedUpdate("mid.1", 1L)), 1L));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.currentThread().interrupt();
+        poller.close();
+        assertTrue(Thread.interrupted());
+
+        release.countDown();
+        assertTrue(poller.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCloseNotStartedPoller() throws Exception {
+        new UpdatePoller(api, new FailByDefaultUpdateVisitor()).close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReconfigureStartedPoller() throws Exception {
+        UpdatePoller poller = new UpdatePoller(api, new FailByDefaultUpdateVisitor());
+        poller.start();
+        try {
+            poller.limit(1);
+        } finally {
+            poller.close();
+        }
+    }
+
+    private void respond(int poll, UpdateList updateList) throws Exception {
+        awaitPolls(poll + 1);
+        byte[] body = serializer.serialize(updateList);
+        responses.get(poll).complete(new ClientResponse(200, body, Collections.emptyMap()));
+    }
+
+    private void awaitPolls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (responses.size() < count) {
+            assertTrue("Expected " + count + " polls", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LongHashSetTest {
+    @Test
+    public void shouldAddAndRemove() throws Exception {
+        LongHashSet set = new LongHashSet();
+        assertThat(set.add(0L), is(true));
+        assertThat(set.add(0L), is(false));
+        assertThat(set.add(Long.MIN_VALUE), is(true));
+        assertThat(set.size(), is(2));
+        assertThat(set.contains(0L), is(true));
+        assertThat(set.contains(1L), is(false));
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertThat(values, is(new long[]{Long.MIN_VALUE, 0L}));
+
+        assertThat(set.remove(0L), is(true));
+        assertThat(set.remove(0L), is(false));
+        assertThat(set.contains(0L), is(false));
+        set.clear();
+        assertThat(set.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldBehaveLikeHashSet() throws Exception {
+        LongHashSet set = new LongHashSet(4);
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextInt(5_000) - 2_500L;
+            if (random.nextInt(3) == 0) {
+                assertThat(set.remove(value), is(expected.remove(value)));
+            } else {
+                assertThat(set.add(value), is(expected.add(value)));
+            }
+        }
+
+        assertThat(set.size(), is(expected.size()));
+        for (long value = -2_500L; value < 2_500L; value++) {
+            assertThat(set.contains(value), is(expected.contains(value)));
+        }
+
+        Set<Long> iterated = new HashSet<>();
+        set.forEach(iterated::add);
+        assertThat(iterated, is(expected));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LongObjectMapTest {
+    @Test
+    public void shouldPutGetAndRemove() throws Exception {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertThat(map.put(0L, "zero"), is(nullValue()));
+        assertThat(map.put(-1L, "minus one"), is(nullValue()));
+        assertThat(map.put(0L, "new zero"), is("zero"));
+
+        assertThat(map.size(), is(2));
+        assertThat(map.get(0L), is("new zero"));
+        assertThat(map.get(-1L), is("minus one"));
+        assertThat(map.get(1L), is(nullValue()));
+
+        assertThat(map.remove(0L), is("new zero"));
+        assertThat(map.remove(0L), is(nullValue()));
+        assertThat(map.containsKey(0L), is(false));
+        assertThat(map.size(), is(1));
+
+        map.clear();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.get(-1L), is(nullValue()));
+    }
+
+    @Test
+    public void shouldBehaveLikeHashMap() throws Exception {
+        LongObjectMap<Long> map = new LongObjectMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // narrow key range makes collisions and removals of displaced entries frequent
+            long key = random.nextInt(5_000) - 2_500L;
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key), is(expected.remove(key)));
+            } else {
+                assertThat(map.put(key, (long) i), is(expected.put(key, (long) i)));
+            }
+        }
+
+        assertThat(map.size(), is(expected.size()));
+        for (long key = -2_500L; key < 2_500L; key++) {
+            assertThat(map.get(key), is(expected.get(key)));
+        }
+
+        Map<Long, Long> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertThat(iterated, is(expected));
+    }
+}
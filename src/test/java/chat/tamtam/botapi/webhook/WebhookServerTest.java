@@ -0,0 +1,253 @@
+/*
+ * ------------------------------------------------------------------------
+ * TamTam chat Bot API
+ * ------------------------------------------------------------------------
+ * Copyright (C) 2018 Mail.Ru Group
+ * ------------------------------------------------------------------------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ------------------------------------------------------------------------
+ */
+package chat.tamtam.botapi.webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import chat.tamtam.botapi.client.ClientResponse;
+import chat.tamtam.botapi.client.ResponseCache;
+import chat.tamtam.botapi.client.TamTamSerializer;
+import chat.tamtam.botapi.client.impl.JacksonSerializer;
+import chat.tamtam.botapi.model.BotStartedUpdate;
+import chat.tamtam.botapi.model.ChatTitleChangedUpdate;
+import chat.tamtam.botapi.model.FailByDefaultUpdateVisitor;
+import chat.tamtam.botapi.model.MessageRemovedUpdate;
+import chat.tamtam.botapi.model.Update;
+import chat.tamtam.botapi.updates.UpdateDispatcher;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookServerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final TamTamSerializer serializer = new JacksonSerializer();
+    private UpdateDispatcher dispatcher;
+    private WebhookServer server;
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void shouldAcknowledgeAndHandleUpdate() throws Exception {
+        List<Update> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch handled = new CountDownLatch(1);
+        start(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                received.add(model);
+                handled.countDown();
+            }
+        }, 16);
+
+        BotStartedUpdate update = new BotStartedUpdate(1L, 2L, 3L);
+        assertThat(post(serializer.serialize(update)), is(200));
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        assertThat(received.get(0), is(update));
+        assertThat(server.getReceivedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRejectMalformedRequests() throws Exception {
+        start(new FailByDefaultUpdateVisitor(), 16);
+
+        assertThat(post("{\"update_type\":".getBytes(StandardCharsets.UTF_8)), is(400));
+        assertThat(server.getMalformedCount(), is(1L));
+
+        HttpURLConnection connection = (HttpURLConnection) url().openConnection();
+        assertThat(connection.getResponseCode(), is(405));
+    }
+
+    @Test
+    public void shouldIgnoreUnwantedTypes() throws Exception {
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor(), 1, 16);
+        dispatcher.start();
+        server = new WebhookServer(serializer, dispatcher)
+                .address(new InetSocketAddress("localhost", 0))
+                .path("/webhook")
+                .types(Collections.singleton(Update.MESSAGE_CREATED));
+        server.start();
+
+        assertThat(post(serializer.serialize(new BotStartedUpdate(1L, 2L, 3L))), is(200));
+        assertThat(server.getIgnoredCount(), is(1L));
+        assertThat(server.getReceivedCount(), is(0L));
+    }
+
+    @Test
+    public void shouldInvalidateCacheByIgnoredUpdates() throws Exception {
+        ResponseCache cache = new ResponseCache(16);
+        ResponseCache.Key key = ResponseCache.Key.of(ResponseCache.Region.CHAT, 1L);
+        cache.put(key, new ClientResponse(200, new byte[0], Collections.emptyMap()), cache.getGeneration(key));
+        dispatcher = new UpdateDispatcher(new FailByDefaultUpdateVisitor(), 1, 16);
+        dispatcher.start();
+        server = new WebhookServer(serializer, dispatcher)
+                .address(new InetSocketAddress("localhost", 0))
+                .path("/webhook")
+                .types(Collections.singleton(Update.MESSAGE_CREATED))
+                .responseCache(cache);
+        server.start();
+
+        assertThat(post(serializer.serialize(new ChatTitleChangedUpdate(1L, 2L, "title", 3L))), is(200));
+        assertThat(server.getIgnoredCount(), is(1L));
+        assertThat(cache.get(key), is(nullValue()));
+    }
+
+    @Test
+    public void shouldAnswer503WhenPipelineIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(BotStartedUpdate model) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 1);
+
+        byte[] body = serializer.serialize(new BotStartedUpdate(1L, 2L, 3L));
+        assertThat(post(body), is(200));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThat(post(body), is(200));
+        assertThat(post(body), is(503));
+        assertThat(server.getRejectedCount(), is(1L));
+        release.countDown();
+    }
+
+    @Test
+    public void shouldAbsorbBurst() throws Exception {
+        int clients = 8;
+        int requestsPerClient = 1000;
+        int total = clients * requestsPerClient;
+        CountDownLatch handled = new CountDownLatch(total);
+        start(new FailByDefaultUpdateVisitor() {
+            @Override
+            public void visit(MessageRemovedUpdate model) {
+                handled.countDown();
+            }
+        }, 256);
+
+        AtomicLong retries = new AtomicLong();
+        ExecutorService generator = Executors.newFixedThreadPool(clients);
+        long startedAt = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                futures.add(generator.submit(() -> {
+                    for (int i = 0; i < requestsPerClient; i++) {
+                        byte[] body = serializer.serialize(new MessageRemovedUpdate("mid." + client + "." + i, 1L));
+                        while (post(body) == 503) {
+                            retries.incrementAndGet();
+                            Thread.sleep(1);
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            assertTrue(handled.await(30, TimeUnit.SECONDS));
+        } finally {
+            generator.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - startedAt;
+        LOG.info("Received {} updates in {} ms ({} req/s), {} retries", total,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), total * TimeUnit.SECONDS.toNanos(1) / elapsed, retries.get());
+
+        assertThat(server.getReceivedCount(), is((long) total));
+        assertThat(server.getRejectedCount(), is(retries.get()));
+    }
+
+    private void start(Update.Visitor handler, int queueCapacity) throws IOException {
+        dispatcher = new UpdateDispatcher(handler, 4, queueCapacity);
+        dispatcher.start();
+        server = new WebhookServer(serializer, dispatcher)
+                .address(new InetSocketAddress("localhost", 0))
+                .path("/webhook");
+        server.start();
+    }
+
+    private URL url() throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/webhook");
+    }
+
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int code = connection.getResponseCode();
+        // drain response to let connection be reused
+        try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                while (in.read() != -1) {
+                    // skip
+                }
+            }
+        }
+
+        return code;
+    }
+}